@@ -0,0 +1,108 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.AdTypeEnum;
+import com.github.blarc.model.PlatformEnum;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Seeded, production-like request and priorities distributions shared by the benchmarks.
+ * A few countries get most of the traffic, Android dominates and OS versions spread over the releases in use.
+ */
+final class BenchmarkData {
+
+    // Ordered by traffic share
+    private static final List<String> TOP_COUNTRIES = List.of(
+            "US", "IN", "BR", "ID", "DE", "GB", "MX", "JP", "FR", "RU",
+            "TR", "PH", "VN", "IT", "ES", "KR", "CN", "TH", "PL", "CA"
+    );
+    private static final int COUNTRIES = 200;
+    // Exponent of the Zipf distribution over countries
+    private static final double COUNTRY_SKEW = 1.1;
+
+    private static final List<String> NETWORKS = List.of(
+            "AdMob", "AdX", "Facebook", "Unity Ads", "IronSource", "AppLovin", "Vungle", "Chartboost",
+            "InMobi", "Mintegral", "Pangle", "Liftoff", "Digital Turbine", "Verve", "SmartAdServer", "Ogury"
+    );
+
+    private static final double ANDROID_SHARE = 0.72;
+    private static final double UNKNOWN_PLATFORM_SHARE = 0.03;
+    private static final double UNKNOWN_OS_VERSION_SHARE = 0.05;
+    private static final int[] ANDROID_MAJOR_VERSIONS = {8, 9, 10, 11, 12, 13, 14, 15};
+    private static final int[] IOS_MAJOR_VERSIONS = {15, 16, 17, 18};
+
+    private BenchmarkData() {
+    }
+
+    record Request(String countryCode, PlatformEnum platform, String osVersion) {
+    }
+
+    static List<String> countryCodes(Random random) {
+        var countryCodes = new ArrayList<>(TOP_COUNTRIES);
+        while (countryCodes.size() < COUNTRIES) {
+            String countryCode = "" + (char) ('A' + random.nextInt(26)) + (char) ('A' + random.nextInt(26));
+            if (!countryCodes.contains(countryCode)) {
+                countryCodes.add(countryCode);
+            }
+        }
+        return countryCodes;
+    }
+
+    // Every country gets 3 to 8 networks per ad type, drawn from the common networks
+    static Map<String, Map<AdTypeEnum, List<String>>> priorities(Random random, List<String> countryCodes) {
+        var prioritiesByCountry = new LinkedHashMap<String, Map<AdTypeEnum, List<String>>>();
+        for (String countryCode : countryCodes) {
+            var priorities = new EnumMap<AdTypeEnum, List<String>>(AdTypeEnum.class);
+            for (AdTypeEnum adType : AdTypeEnum.values()) {
+                var networks = new ArrayList<>(NETWORKS);
+                Collections.shuffle(networks, random);
+                priorities.put(adType, List.copyOf(networks.subList(0, 3 + random.nextInt(6))));
+            }
+            prioritiesByCountry.put(countryCode, priorities);
+        }
+        return prioritiesByCountry;
+    }
+
+    static Request[] requests(Random random, List<String> countryCodes, int count) {
+        double[] cumulativeWeights = new double[countryCodes.size()];
+        double total = 0;
+        for (int rank = 0; rank < cumulativeWeights.length; rank++) {
+            total += 1 / Math.pow(rank + 1, COUNTRY_SKEW);
+            cumulativeWeights[rank] = total;
+        }
+
+        var requests = new Request[count];
+        for (int i = 0; i < count; i++) {
+            double country = random.nextDouble() * total;
+            int rank = 0;
+            while (cumulativeWeights[rank] < country) {
+                rank++;
+            }
+
+            PlatformEnum platform;
+            double platformDraw = random.nextDouble();
+            if (platformDraw < UNKNOWN_PLATFORM_SHARE) {
+                platform = null;
+            } else {
+                platform = platformDraw < UNKNOWN_PLATFORM_SHARE + ANDROID_SHARE ? PlatformEnum.ANDROID : PlatformEnum.IOS;
+            }
+
+            requests[i] = new Request(countryCodes.get(rank), platform, osVersion(random, platform));
+        }
+        return requests;
+    }
+
+    private static String osVersion(Random random, PlatformEnum platform) {
+        if (platform == null || random.nextDouble() < UNKNOWN_OS_VERSION_SHARE) {
+            return null;
+        }
+        int[] majorVersions = platform == PlatformEnum.ANDROID ? ANDROID_MAJOR_VERSIONS : IOS_MAJOR_VERSIONS;
+        return majorVersions[random.nextInt(majorVersions.length)] + "." + random.nextInt(5) + "." + random.nextInt(3);
+    }
+}
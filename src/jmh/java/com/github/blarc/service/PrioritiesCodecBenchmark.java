@@ -0,0 +1,94 @@
+package com.github.blarc.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.blarc.model.AdTypeEnum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binary priorities values compared to the JSON values stored before, for the same seeded countries.
+ * The average payload sizes are printed once before the measurements.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PrioritiesCodecBenchmark {
+
+    private static final TypeReference<Map<AdTypeEnum, List<String>>> PRIORITIES_TYPE = new TypeReference<>() {};
+    private static final long SEED = 42;
+
+    private ObjectMapper objectMapper;
+    private PrioritiesCodec codec;
+
+    private List<Map<AdTypeEnum, List<String>>> priorities;
+    private byte[][] jsonValues;
+    private byte[][] binaryValues;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        var random = new Random(SEED);
+        objectMapper = new ObjectMapper();
+        codec = new PrioritiesCodec();
+        codec.objectMapper = objectMapper;
+        codec.binaryValues = true;
+
+        priorities = List.copyOf(BenchmarkData.priorities(random, BenchmarkData.countryCodes(random)).values());
+        jsonValues = new byte[priorities.size()][];
+        binaryValues = new byte[priorities.size()][];
+        long jsonBytes = 0;
+        long binaryBytes = 0;
+        for (int i = 0; i < priorities.size(); i++) {
+            jsonValues[i] = objectMapper.writeValueAsBytes(priorities.get(i));
+            binaryValues[i] = codec.encode(priorities.get(i));
+            jsonBytes += jsonValues[i].length;
+            binaryBytes += binaryValues[i].length;
+        }
+        System.out.printf("%nAverage value size: JSON %d bytes, binary %d bytes%n",
+                jsonBytes / priorities.size(), binaryBytes / priorities.size());
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == priorities.size() ? 0 : index + 1;
+        return index;
+    }
+
+    @Benchmark
+    public Map<AdTypeEnum, List<String>> decodeJson() throws IOException {
+        return objectMapper.readValue(jsonValues[nextIndex()], PRIORITIES_TYPE);
+    }
+
+    @Benchmark
+    public Map<AdTypeEnum, List<String>> decodeBinary() {
+        return codec.decode(binaryValues[nextIndex()]);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() throws IOException {
+        return objectMapper.writeValueAsBytes(priorities.get(nextIndex()));
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return codec.encode(priorities.get(nextIndex()));
+    }
+}
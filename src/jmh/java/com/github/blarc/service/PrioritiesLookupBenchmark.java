@@ -0,0 +1,161 @@
+package com.github.blarc.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.blarc.model.AdNetworkPriorities;
+import com.github.blarc.model.CountryCode;
+import com.github.blarc.model.EncodedResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.quarkus.cache.runtime.noop.NoOpCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One benchmark per stage of GET /ads/{country_code}, plus the whole cache miss.
+ * Every invocation takes the next request of a seeded, production-like mix. Inputs of the later stages are
+ * precomputed, so each benchmark only measures its own stage. Run with the benchmark profile, see the README.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PrioritiesLookupBenchmark {
+
+    // Power of two, so the next request is picked with a mask
+    private static final int REQUESTS = 1 << 14;
+    private static final long SEED = 42;
+
+    private NetworkRegistry networkRegistry;
+    private AdNetworkPrioritiesService adNetworkPrioritiesService;
+    private PrioritiesResponseCache prioritiesResponseCache;
+    private ObjectMapper objectMapper;
+
+    private BenchmarkData.Request[] requests;
+    private String[] canonicalOsVersions;
+    private CompactPriorities[] filteredPriorities;
+    private AdNetworkPriorities[] adNetworkPriorities;
+    private int next;
+
+    @Setup
+    public void setup() {
+        var random = new Random(SEED);
+        var countryCodes = BenchmarkData.countryCodes(random);
+        networkRegistry = new NetworkRegistry();
+        objectMapper = new ObjectMapper();
+
+        var metrics = new PrioritiesMetrics();
+        metrics.registry = new SimpleMeterRegistry();
+        metrics.taggedCountries = Set.of();
+        metrics.init();
+
+        var filterRuleEngine = new FilterRuleEngine();
+        filterRuleEngine.networkRegistry = networkRegistry;
+        filterRuleEngine.init();
+
+        var snapshotFile = new PrioritiesSnapshotFile();
+        snapshotFile.file = Optional.empty();
+
+        // Stands in for Redis, the snapshot is filled directly
+        var prioritiesSnapshot = new PrioritiesSnapshot();
+        prioritiesSnapshot.networkRegistry = networkRegistry;
+        prioritiesSnapshot.snapshotFile = snapshotFile;
+        prioritiesSnapshot.countryPrioritiesCache = new NoOpCache();
+
+        adNetworkPrioritiesService = new AdNetworkPrioritiesService();
+        adNetworkPrioritiesService.prioritiesSnapshot = prioritiesSnapshot;
+        adNetworkPrioritiesService.filterRuleEngine = filterRuleEngine;
+        adNetworkPrioritiesService.networkRegistry = networkRegistry;
+        adNetworkPrioritiesService.metrics = metrics;
+        adNetworkPrioritiesService.init();
+
+        prioritiesResponseCache = new PrioritiesResponseCache();
+        prioritiesResponseCache.adNetworkPrioritiesService = adNetworkPrioritiesService;
+        prioritiesResponseCache.filterRuleEngine = filterRuleEngine;
+        prioritiesResponseCache.networkRegistry = networkRegistry;
+        prioritiesResponseCache.objectMapper = objectMapper;
+        prioritiesResponseCache.metrics = metrics;
+        prioritiesResponseCache.init();
+        filterRuleEngine.responseCache = prioritiesResponseCache;
+        prioritiesSnapshot.responseCache = prioritiesResponseCache;
+        prioritiesSnapshot.putAll(BenchmarkData.priorities(random, countryCodes), 1);
+
+        requests = BenchmarkData.requests(random, countryCodes, REQUESTS);
+        canonicalOsVersions = new String[REQUESTS];
+        filteredPriorities = new CompactPriorities[REQUESTS];
+        adNetworkPriorities = new AdNetworkPriorities[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            var request = requests[i];
+            canonicalOsVersions[i] = canonicalOsVersion(request);
+            // Every slot is built once, so the response table benchmark only sees hits
+            prioritiesResponseCache.get(request.countryCode(), request.platform(), request.osVersion()).await().indefinitely();
+            filteredPriorities[i] = adNetworkPrioritiesService
+                    .getNetworkPriorities(request.countryCode(), request.platform(), canonicalOsVersions[i])
+                    .await().indefinitely();
+            adNetworkPriorities[i] = filteredPriorities[i].toAdNetworkPriorities(networkRegistry);
+        }
+    }
+
+    private int nextIndex() {
+        return next++ & (REQUESTS - 1);
+    }
+
+    private String canonicalOsVersion(BenchmarkData.Request request) {
+        return adNetworkPrioritiesService.canonicalOsVersion(request.countryCode(), request.platform(), request.osVersion());
+    }
+
+    @Benchmark
+    public boolean validation() {
+        return CountryCode.isValid(requests[nextIndex()].countryCode());
+    }
+
+    @Benchmark
+    public EncodedResponse responseTableHit() {
+        var request = requests[nextIndex()];
+        return prioritiesResponseCache.getIfPresent(request.countryCode(), request.platform(), request.osVersion());
+    }
+
+    @Benchmark
+    public CompactPriorities filtering() {
+        int index = nextIndex();
+        var request = requests[index];
+        return adNetworkPrioritiesService
+                .getNetworkPriorities(request.countryCode(), request.platform(), canonicalOsVersions[index])
+                .await().indefinitely();
+    }
+
+    @Benchmark
+    public AdNetworkPriorities recordMapping() {
+        return filteredPriorities[nextIndex()].toAdNetworkPriorities(networkRegistry);
+    }
+
+    @Benchmark
+    public byte[] serialization() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(adNetworkPriorities[nextIndex()]);
+    }
+
+    // Everything a request pays when its key is not cached, including gzip and brotli compression
+    @Benchmark
+    public EncodedResponse cacheMiss() {
+        var request = requests[nextIndex()];
+        if (!CountryCode.isValid(request.countryCode())) {
+            throw new IllegalStateException("Invalid country code " + request.countryCode());
+        }
+        return prioritiesResponseCache.build(request.countryCode(), request.platform(), canonicalOsVersion(request))
+                .await().indefinitely();
+    }
+}
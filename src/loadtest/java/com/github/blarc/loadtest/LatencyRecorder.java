@@ -0,0 +1,57 @@
+package com.github.blarc.loadtest;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+// Keeps every sample, a run of a few minutes on a single box fits into memory easily
+final class LatencyRecorder {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final String name;
+    private long[] latencies = new long[1 << 16];
+    private int count;
+    private int errors;
+
+    LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    synchronized void record(long latencyNanos) {
+        if (count == latencies.length) {
+            latencies = Arrays.copyOf(latencies, count * 2);
+        }
+        latencies[count++] = latencyNanos;
+    }
+
+    synchronized void recordError() {
+        errors++;
+    }
+
+    synchronized int errors() {
+        return errors;
+    }
+
+    synchronized String report(double elapsedSeconds) {
+        var sorted = Arrays.copyOf(latencies, count);
+        Arrays.sort(sorted);
+
+        var report = new StringBuilder(String.format(Locale.ROOT,
+                "%-4s %9d requests %6d errors %10.1f req/s", name, count, errors, count / elapsedSeconds));
+        for (double percentile : PERCENTILES) {
+            report.append(String.format(Locale.ROOT, "  p%-4s %8.3f ms",
+                    percentile == Math.rint(percentile) ? String.valueOf((int) percentile) : String.valueOf(percentile),
+                    percentile(sorted, percentile)));
+        }
+        report.append(String.format(Locale.ROOT, "  max %8.3f ms", count == 0 ? 0 : sorted[count - 1] / 1e6));
+        return report.toString();
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1e6;
+    }
+}
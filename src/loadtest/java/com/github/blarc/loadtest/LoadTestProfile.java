@@ -0,0 +1,17 @@
+package com.github.blarc.loadtest;
+
+import io.quarkus.test.junit.QuarkusTestProfile;
+
+import java.util.Map;
+
+// The test profile disables the caches, the load test has to measure the production setup
+public class LoadTestProfile implements QuarkusTestProfile {
+
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        return Map.of(
+                "quarkus.cache.enabled", "true",
+                "quarkus.log.category.\"com.github.blarc\".level", "WARN"
+        );
+    }
+}
@@ -0,0 +1,182 @@
+package com.github.blarc.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.blarc.model.AdNetworkPriorities;
+import io.quarkus.test.common.http.TestHTTPResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Open-model load test of GET /ads/{country_code} with periodic PUT /ads bursts, Redis comes from Dev Services.
+ * Requests are sent at a fixed rate regardless of how fast responses come back, and latency is measured from the
+ * time a request was due, so a stalled server shows up in the tail instead of lowering the request rate.
+ * Run with: mvn -Ploadtest test -Dloadtest.rate=5000 -Dloadtest.duration=2m
+ */
+@QuarkusTest
+@TestProfile(LoadTestProfile.class)
+public class PrioritiesLoadTest {
+
+    private static final String PROCESSING_AUTHORIZATION = "Basic " + Base64.getEncoder()
+            .encodeToString("processing:processing".getBytes(StandardCharsets.UTF_8));
+
+    @TestHTTPResource("/")
+    URI baseUri;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @ConfigProperty(name = "loadtest.warmup", defaultValue = "15s")
+    Duration warmup;
+
+    @ConfigProperty(name = "loadtest.duration", defaultValue = "60s")
+    Duration duration;
+
+    // GET requests per second
+    @ConfigProperty(name = "loadtest.rate", defaultValue = "2000")
+    int rate;
+
+    @ConfigProperty(name = "loadtest.countries", defaultValue = "200")
+    int countries;
+
+    // Exponent of the Zipf distribution over countries
+    @ConfigProperty(name = "loadtest.country-skew", defaultValue = "1.1")
+    double countrySkew;
+
+    @ConfigProperty(name = "loadtest.android-share", defaultValue = "0.72")
+    double androidShare;
+
+    @ConfigProperty(name = "loadtest.put-interval", defaultValue = "5s")
+    Duration putInterval;
+
+    // Countries updated by a single PUT
+    @ConfigProperty(name = "loadtest.put-countries", defaultValue = "50")
+    int putCountries;
+
+    @ConfigProperty(name = "loadtest.seed", defaultValue = "42")
+    long seed;
+
+    @Test
+    public void run() throws Exception {
+        var trafficMix = new TrafficMix(seed, countries, countrySkew, androidShare);
+
+        try (var client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+             var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            assertThat(put(client, trafficMix.priorities(trafficMix.countryCodes()))).isEqualTo(204);
+
+            generate(client, executor, trafficMix, warmup, new LatencyRecorder("GET"), new LatencyRecorder("PUT"));
+
+            var gets = new LatencyRecorder("GET");
+            var puts = new LatencyRecorder("PUT");
+            long start = System.nanoTime();
+            generate(client, executor, trafficMix, duration, gets, puts);
+            double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.printf("%nLoad test: %d GET/s for %s, %d countries, PUT of %d countries every %s%n",
+                    rate, duration, countries, putCountries, putInterval);
+            System.out.println(gets.report(elapsedSeconds));
+            System.out.println(puts.report(elapsedSeconds));
+
+            assertThat(gets.errors()).isZero();
+            assertThat(puts.errors()).isZero();
+        }
+    }
+
+    private void generate(
+            HttpClient client,
+            ExecutorService executor,
+            TrafficMix trafficMix,
+            Duration duration,
+            LatencyRecorder gets,
+            LatencyRecorder puts
+    ) {
+        long intervalNanos = 1_000_000_000L / rate;
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        long nextPut = start + putInterval.toNanos();
+        // Tracks the requests still in flight
+        var inFlight = new Phaser(1);
+
+        for (long due = start; due < end; due += intervalNanos) {
+            waitUntil(due);
+            if (due >= nextPut) {
+                nextPut += putInterval.toNanos();
+                var priorities = trafficMix.priorities(trafficMix.randomCountries(putCountries));
+                submit(executor, inFlight, due, puts, 204, () -> put(client, priorities));
+            }
+            var path = trafficMix.nextRequestPath();
+            submit(executor, inFlight, due, gets, 200, () -> get(client, path));
+        }
+        inFlight.arriveAndAwaitAdvance();
+    }
+
+    private static void submit(
+            ExecutorService executor,
+            Phaser inFlight,
+            long due,
+            LatencyRecorder recorder,
+            int expectedStatus,
+            StatusCall call
+    ) {
+        inFlight.register();
+        executor.execute(() -> {
+            try {
+                if (call.send() == expectedStatus) {
+                    recorder.record(System.nanoTime() - due);
+                } else {
+                    recorder.recordError();
+                }
+            } catch (Exception e) {
+                recorder.recordError();
+            } finally {
+                inFlight.arriveAndDeregister();
+            }
+        });
+    }
+
+    private int get(HttpClient client, String path) throws Exception {
+        var request = HttpRequest.newBuilder(baseUri.resolve(path))
+                .header("Accept-Encoding", "gzip, br")
+                .GET()
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private int put(HttpClient client, Map<String, AdNetworkPriorities> priorities) throws Exception {
+        var request = HttpRequest.newBuilder(baseUri.resolve("/ads"))
+                .header("Authorization", PROCESSING_AUTHORIZATION)
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(priorities)))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private static void waitUntil(long nanoTime) {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    @FunctionalInterface
+    private interface StatusCall {
+        int send() throws Exception;
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.blarc.loadtest;
+
+import com.github.blarc.model.AdNetworkPriorities;
+import com.github.blarc.model.PlatformEnum;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Seeded request mix: Zipf-skewed countries, a platform split and OS versions spread over the releases in use.
+ * The same seed always produces the same countries, priorities and request sequence.
+ */
+final class TrafficMix {
+
+    private static final List<String> NETWORKS = List.of(
+            "AdMob", "AdX", "Facebook", "Unity Ads", "IronSource", "AppLovin", "Vungle", "Chartboost",
+            "InMobi", "Mintegral", "Pangle", "Liftoff", "Digital Turbine", "Verve", "SmartAdServer", "Ogury"
+    );
+    private static final int[] ANDROID_MAJOR_VERSIONS = {8, 9, 10, 11, 12, 13, 14, 15};
+    private static final int[] IOS_MAJOR_VERSIONS = {15, 16, 17, 18};
+    private static final double UNKNOWN_PLATFORM_SHARE = 0.03;
+    private static final double UNKNOWN_OS_VERSION_SHARE = 0.05;
+
+    private final Random random;
+    private final List<String> countryCodes;
+    private final double[] cumulativeWeights;
+    private final double androidShare;
+
+    TrafficMix(long seed, int countries, double countrySkew, double androidShare) {
+        this.random = new Random(seed);
+        this.androidShare = androidShare;
+
+        // All two letter codes in a seeded order, the first ones get the most traffic
+        var allCountryCodes = new ArrayList<String>();
+        for (char first = 'A'; first <= 'Z'; first++) {
+            for (char second = 'A'; second <= 'Z'; second++) {
+                allCountryCodes.add("" + first + second);
+            }
+        }
+        Collections.shuffle(allCountryCodes, random);
+        countryCodes = List.copyOf(allCountryCodes.subList(0, countries));
+
+        cumulativeWeights = new double[countries];
+        double total = 0;
+        for (int rank = 0; rank < countries; rank++) {
+            total += 1 / Math.pow(rank + 1, countrySkew);
+            cumulativeWeights[rank] = total;
+        }
+    }
+
+    List<String> countryCodes() {
+        return countryCodes;
+    }
+
+    // Every country gets 3 to 8 networks per ad type
+    synchronized Map<String, AdNetworkPriorities> priorities(List<String> countryCodes) {
+        var priorities = new LinkedHashMap<String, AdNetworkPriorities>();
+        for (String countryCode : countryCodes) {
+            priorities.put(countryCode, new AdNetworkPriorities(networks(), networks(), networks()));
+        }
+        return priorities;
+    }
+
+    synchronized String nextRequestPath() {
+        double country = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+        int rank = 0;
+        while (cumulativeWeights[rank] < country) {
+            rank++;
+        }
+
+        var path = new StringBuilder("/ads/").append(countryCodes.get(rank));
+        double platformDraw = random.nextDouble();
+        if (platformDraw >= UNKNOWN_PLATFORM_SHARE) {
+            var platform = platformDraw < UNKNOWN_PLATFORM_SHARE + androidShare ? PlatformEnum.ANDROID : PlatformEnum.IOS;
+            path.append("?platform=").append(platform);
+            if (random.nextDouble() >= UNKNOWN_OS_VERSION_SHARE) {
+                int[] majorVersions = platform == PlatformEnum.ANDROID ? ANDROID_MAJOR_VERSIONS : IOS_MAJOR_VERSIONS;
+                path.append("&os_version=")
+                        .append(majorVersions[random.nextInt(majorVersions.length)])
+                        .append('.').append(random.nextInt(5))
+                        .append('.').append(random.nextInt(3));
+            }
+        }
+        return path.toString();
+    }
+
+    synchronized List<String> randomCountries(int count) {
+        var shuffled = new ArrayList<>(countryCodes);
+        Collections.shuffle(shuffled, random);
+        return shuffled.subList(0, Math.min(count, shuffled.size()));
+    }
+
+    private List<String> networks() {
+        var networks = new ArrayList<>(NETWORKS);
+        Collections.shuffle(networks, random);
+        return List.copyOf(networks.subList(0, 3 + random.nextInt(6)));
+    }
+}
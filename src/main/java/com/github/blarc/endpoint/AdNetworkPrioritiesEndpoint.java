@@ -1,15 +1,31 @@
 package com.github.blarc.endpoint;
 
 import com.github.blarc.model.AdNetworkPriorities;
+import com.github.blarc.model.ContentEncodingEnum;
+import com.github.blarc.model.CountryCode;
+import com.github.blarc.model.EncodedResponse;
+import com.github.blarc.model.IngestResult;
 import com.github.blarc.model.PlatformEnum;
+import com.github.blarc.model.PrioritiesLookup;
+import com.github.blarc.model.UpdateSummary;
 import com.github.blarc.service.AdNetworkPrioritiesService;
+import com.github.blarc.service.PrioritiesIngestService;
+import com.github.blarc.service.PrioritiesMetrics;
+import com.github.blarc.service.PrioritiesResponseCache;
+import io.smallrye.common.annotation.Blocking;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
 import jakarta.annotation.security.DenyAll;
 import jakarta.annotation.security.PermitAll;
 import jakarta.annotation.security.RolesAllowed;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import io.vertx.ext.web.RoutingContext;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
@@ -21,6 +37,13 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.eclipse.microprofile.openapi.annotations.security.SecurityRequirement;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -33,9 +56,22 @@ import java.util.stream.Collectors;
 @Tag(name = "Ad Network Priorities", description = "Manage ad network priorities for different countries and platforms")
 public class AdNetworkPrioritiesEndpoint {
 
+    private static final String SERVER_TIMING = "Server-Timing";
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+
     @Inject
     AdNetworkPrioritiesService adNetworkPrioritiesService;
 
+    @Inject
+    PrioritiesResponseCache prioritiesResponseCache;
+
+    @Inject
+    PrioritiesIngestService prioritiesIngestService;
+
+    @Inject
+    PrioritiesMetrics metrics;
+
     @GET
     @Path("/{country_code}")
     @PermitAll
@@ -57,15 +93,33 @@ public class AdNetworkPrioritiesEndpoint {
                                     name = "Cache-Control",
                                     description = "Cache control directive",
                                     schema = @Schema(type = SchemaType.STRING)
+                            ),
+                            @org.eclipse.microprofile.openapi.annotations.headers.Header(
+                                    name = "ETag",
+                                    description = "Entity tag of the priorities, can be sent back in If-None-Match",
+                                    schema = @Schema(type = SchemaType.STRING)
+                            ),
+                            @org.eclipse.microprofile.openapi.annotations.headers.Header(
+                                    name = "Content-Encoding",
+                                    description = "Compression of the body (gzip or br) negotiated from Accept-Encoding",
+                                    schema = @Schema(type = SchemaType.STRING)
                             )
                     }
             ),
+            @APIResponse(
+                    responseCode = "304",
+                    description = "Priorities have not changed since the entity tag in If-None-Match"
+            ),
             @APIResponse(
                     responseCode = "400",
                     description = "Invalid country code format (must be 2 uppercase letters)"
+            ),
+            @APIResponse(
+                    responseCode = "503",
+                    description = "Overloaded and the response is not built yet, retry after the Retry-After header"
             )
     })
-    public AdNetworkPriorities getAdNetworkPriorities(
+    public Uni<Response> getAdNetworkPriorities(
             @Parameter(
                     description = "Two-letter country code (ISO 3166-1 alpha-2)",
                     required = true,
@@ -84,14 +138,162 @@ public class AdNetworkPrioritiesEndpoint {
                     description = "Operating system version",
                     example = "9.3.1"
             )
-            @QueryParam("os_version") String osVersion
+            @QueryParam("os_version") String osVersion,
+
+            @Parameter(hidden = true)
+            @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+
+            @Parameter(description = "Entity tag of a previously received response")
+            @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch,
+
+            @Parameter(hidden = true)
+            @Context RoutingContext routingContext
     ) {
-        if (!countryCode.matches("^[A-Z]{2}$")) {
+        if (!CountryCode.isValid(countryCode)) {
             throw new BadRequestException("Invalid country code");
         }
 
-        var networkPrioritiesMap = adNetworkPrioritiesService.getNetworkPrioritiesMap(countryCode, platform, osVersion);
-        return AdNetworkPriorities.from(networkPrioritiesMap);
+        // Runs on the event loop, the lookup is served from memory and never waits on Redis.
+        // Once a response is built, serving it only allocates the response itself.
+        long start = System.nanoTime();
+        var encodedResponse = prioritiesResponseCache.getIfPresent(countryCode, platform, osVersion);
+        if (encodedResponse != null) {
+            metrics.recordCacheLookup(start);
+            return Uni.createFrom().item(toResponse(encodedResponse, countryCode, platform, acceptEncoding, ifNoneMatch));
+        }
+        if (ConcurrencyLimitFilter.isShed(routingContext)) {
+            // Over the concurrency limit, building the response would only queue behind the others
+            return Uni.createFrom().item(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, ConcurrencyLimitFilter.RETRY_AFTER_SECONDS)
+                    .header(HttpHeaders.CACHE_CONTROL, "no-store")
+                    .build());
+        }
+        return prioritiesResponseCache.load(countryCode, platform, osVersion)
+                .invoke(() -> metrics.recordCacheLookup(start))
+                .map(loaded -> toResponse(loaded, countryCode, platform, acceptEncoding, ifNoneMatch));
+    }
+
+    // The body is already serialized and compressed, it is written to the response as is
+    private Response toResponse(
+            EncodedResponse encodedResponse,
+            String countryCode,
+            PlatformEnum platform,
+            String acceptEncoding,
+            String ifNoneMatch
+    ) {
+        var matchingTag = encodedResponse.matchingTag(ifNoneMatch);
+        if (matchingTag != null) {
+            // The client already has the current priorities
+            metrics.recordRequest(countryCode, platform, PrioritiesMetrics.RESULT_NOT_MODIFIED);
+            return Response.notModified()
+                    .header(HttpHeaders.ETAG, matchingTag)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+
+        metrics.recordRequest(countryCode, platform, PrioritiesMetrics.RESULT_OK);
+        var encoding = encodedResponse.select(acceptEncoding);
+        var response = Response.ok(encodedResponse.body(encoding), MediaType.APPLICATION_JSON_TYPE)
+                .header(HttpHeaders.ETAG, encodedResponse.etag(encoding))
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        if (encoding != ContentEncodingEnum.IDENTITY) {
+            response.header(HttpHeaders.CONTENT_ENCODING, encoding.token());
+        }
+        return response.build();
+    }
+
+    @POST
+    @Path("/batch")
+    @PermitAll
+    // Parsing and canonicalizing up to MAX_BATCH_SIZE lookups is too much work for the event loop
+    @Blocking
+    @Operation(
+            summary = "Get ad network priorities for many lookups",
+            description = "Resolves up to " + MAX_BATCH_SIZE + " (country, platform, OS version) lookups in a single request " +
+                    "and returns the priorities in request order. Used by server-side gateways instead of one GET per lookup."
+    )
+    @APIResponses({
+            @APIResponse(
+                    responseCode = "200",
+                    description = "Priorities of every lookup, in request order",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(type = SchemaType.ARRAY, implementation = AdNetworkPriorities.class)
+                    )
+            ),
+            @APIResponse(
+                    responseCode = "400",
+                    description = "Empty or too large batch, or an invalid country code"
+            )
+    })
+    public Uni<Response> getAdNetworkPrioritiesBatch(
+            @RequestBody(
+                    description = "Lookups to resolve",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(type = SchemaType.ARRAY, implementation = PrioritiesLookup.class)
+                    )
+            )
+            List<PrioritiesLookup> lookups
+    ) {
+        if (lookups == null || lookups.isEmpty() || lookups.size() > MAX_BATCH_SIZE) {
+            throw new BadRequestException("A batch must contain between 1 and " + MAX_BATCH_SIZE + " lookups");
+        }
+
+        // Lookups with the same cache key are resolved once
+        var keys = new LookupKey[lookups.size()];
+        var responsesByKey = new LinkedHashMap<LookupKey, Uni<EncodedResponse>>();
+        for (int i = 0; i < keys.length; i++) {
+            var lookup = lookups.get(i);
+            if (lookup == null || !CountryCode.isValid(lookup.countryCode())) {
+                throw new BadRequestException("Invalid country code in lookup " + i);
+            }
+
+            var canonicalOsVersion = adNetworkPrioritiesService.canonicalOsVersion(
+                    lookup.countryCode(), lookup.platform(), lookup.osVersion()
+            );
+            keys[i] = new LookupKey(lookup.countryCode(), lookup.platform(), canonicalOsVersion);
+            responsesByKey.computeIfAbsent(keys[i], this::batchResponse);
+        }
+
+        var uniqueKeys = List.copyOf(responsesByKey.keySet());
+        return Uni.join().all(List.copyOf(responsesByKey.values())).andFailFast()
+                .map(encodedResponses -> {
+                    var bodies = new HashMap<LookupKey, byte[]>();
+                    for (int i = 0; i < uniqueKeys.size(); i++) {
+                        bodies.put(uniqueKeys.get(i), encodedResponses.get(i).identity());
+                    }
+
+                    // The cached bodies are already serialized, they only have to be joined into an array
+                    var body = new ByteArrayOutputStream();
+                    body.write('[');
+                    for (int i = 0; i < keys.length; i++) {
+                        if (i > 0) {
+                            body.write(',');
+                        }
+                        body.writeBytes(bodies.get(keys[i]));
+                    }
+                    body.write(']');
+                    recordBatch(lookups, PrioritiesMetrics.RESULT_OK);
+                    return Response.ok(body.toByteArray(), MediaType.APPLICATION_JSON_TYPE).build();
+                })
+                .onFailure().invoke(() -> recordBatch(lookups, PrioritiesMetrics.RESULT_ERROR));
+    }
+
+    private void recordBatch(List<PrioritiesLookup> lookups, String result) {
+        for (var lookup : lookups) {
+            metrics.recordRequest(lookup.countryCode(), lookup.platform(), result);
+        }
+    }
+
+    // A batch may miss up to MAX_BATCH_SIZE responses, those are built in parallel on other worker threads
+    private Uni<EncodedResponse> batchResponse(LookupKey key) {
+        var encodedResponse = prioritiesResponseCache.getIfPresent(key.countryCode(), key.platform(), key.osVersion());
+        if (encodedResponse != null) {
+            return Uni.createFrom().item(encodedResponse);
+        }
+        return prioritiesResponseCache.load(key.countryCode(), key.platform(), key.osVersion())
+                .runSubscriptionOn(Infrastructure.getDefaultWorkerPool());
     }
 
     @GET
@@ -125,6 +327,7 @@ public class AdNetworkPrioritiesEndpoint {
             )
     })
     public Map<String, AdNetworkPriorities> getAllAdNetworkPriorities() {
+        // Read completely before the response is committed, a Redis failure part way is an error status instead of a truncated body
         return adNetworkPrioritiesService.getAllNetworkPriorities().entrySet().stream()
                 .collect(Collectors.toMap(
                         Map.Entry::getKey,
@@ -144,7 +347,14 @@ public class AdNetworkPrioritiesEndpoint {
     @APIResponses({
             @APIResponse(
                     responseCode = "204",
-                    description = "Priorities successfully updated"
+                    description = "Priorities successfully updated",
+                    headers = {
+                            @org.eclipse.microprofile.openapi.annotations.headers.Header(
+                                    name = "Server-Timing",
+                                    description = "Duration of the Redis write in milliseconds",
+                                    schema = @Schema(type = SchemaType.STRING)
+                            )
+                    }
             ),
             @APIResponse(
                     responseCode = "400",
@@ -159,7 +369,7 @@ public class AdNetworkPrioritiesEndpoint {
                     description = "Insufficient permissions (requires 'processing' role)"
             )
     })
-    public void updateAdNetworkPriorities(
+    public Response updateAdNetworkPriorities(
             @RequestBody(
                     description = "Map of country codes to ad network priorities. Each country must have priorities for all ad types.",
                     content = @Content(
@@ -186,11 +396,119 @@ public class AdNetworkPrioritiesEndpoint {
             )
             Map<String, AdNetworkPriorities> priorities
     ) {
-        priorities.forEach((countryCode, adNetworkPriorities) -> {
-            if (!countryCode.matches("^[A-Z]{2}$")) {
-                throw new BadRequestException("Invalid country code");
-            }
-        });
-        adNetworkPrioritiesService.updateAdNetworkPriorities(priorities);
+        priorities.forEach(AdNetworkPrioritiesEndpoint::validate);
+        var redisWriteDuration = adNetworkPrioritiesService.updateAdNetworkPriorities(priorities);
+        return Response.noContent()
+                .header(SERVER_TIMING, String.format(Locale.ROOT, "redis;desc=\"Redis write\";dur=%.3f",
+                        redisWriteDuration.toNanos() / 1_000_000.0))
+                .build();
+    }
+
+    @PATCH
+    @RolesAllowed({"processing"})
+    @Operation(
+            summary = "Update only the changed ad network priorities",
+            description = "Accepts the same body as PUT /ads, but compares every country and ad type with the stored content " +
+                    "and only writes the countries that changed. Unchanged countries keep their cached responses and entity tags. " +
+                    "Requires 'processing' role for access."
+    )
+    @SecurityRequirement(name = "basicAuth")
+    @APIResponses({
+            @APIResponse(
+                    responseCode = "200",
+                    description = "Changed countries were written",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(implementation = UpdateSummary.class)
+                    )
+            ),
+            @APIResponse(
+                    responseCode = "400",
+                    description = "Invalid request body or country code format"
+            ),
+            @APIResponse(
+                    responseCode = "401",
+                    description = "Authentication required"
+            ),
+            @APIResponse(
+                    responseCode = "403",
+                    description = "Insufficient permissions (requires 'processing' role)"
+            )
+    })
+    public UpdateSummary patchAdNetworkPriorities(
+            @RequestBody(description = "Map of country codes to ad network priorities. Each country must have priorities for all ad types.")
+            Map<String, AdNetworkPriorities> priorities
+    ) {
+        priorities.forEach(AdNetworkPrioritiesEndpoint::validate);
+        return adNetworkPrioritiesService.patchAdNetworkPriorities(priorities);
+    }
+
+    @PUT
+    @Path("/stream")
+    @RolesAllowed({"processing"})
+    @Consumes({APPLICATION_NDJSON, MediaType.APPLICATION_JSON})
+    @Operation(
+            summary = "Stream a large priorities upload",
+            description = "Reads the upload record by record and writes it in batches, so uploads of any size use constant memory. " +
+                    "Accepts NDJSON with one {\"country_code\": ..., \"priorities\": ...} object per line, " +
+                    "or the same JSON object as PUT /ads. Invalid records are reported and skipped, the others are written. " +
+                    "Requires 'processing' role for access."
+    )
+    @SecurityRequirement(name = "basicAuth")
+    @APIResponses({
+            @APIResponse(
+                    responseCode = "200",
+                    description = "Upload read completely, rejected records are listed in the errors",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(implementation = IngestResult.class)
+                    )
+            ),
+            @APIResponse(
+                    responseCode = "400",
+                    description = "Malformed upload, records before the error were written",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(implementation = IngestResult.class)
+                    )
+            ),
+            @APIResponse(
+                    responseCode = "401",
+                    description = "Authentication required"
+            ),
+            @APIResponse(
+                    responseCode = "403",
+                    description = "Insufficient permissions (requires 'processing' role)"
+            )
+    })
+    public Response streamAdNetworkPriorities(
+            @Parameter(hidden = true)
+            @HeaderParam(HttpHeaders.CONTENT_TYPE) String contentType,
+
+            @RequestBody(description = "NDJSON records or a JSON object of country codes to priorities")
+            InputStream body
+    ) throws IOException {
+        var result = contentType != null && contentType.startsWith(APPLICATION_NDJSON)
+                ? prioritiesIngestService.ingestNdjson(body)
+                : prioritiesIngestService.ingestJson(body);
+        return Response.status(result.complete() ? Response.Status.OK : Response.Status.BAD_REQUEST)
+                .entity(result)
+                .build();
+    }
+
+    // Shared by the endpoints that write priorities, the Redis value and the snapshot need every network name
+    static void validate(String countryCode, AdNetworkPriorities adNetworkPriorities) {
+        if (!CountryCode.isValid(countryCode)) {
+            throw new BadRequestException("Invalid country code");
+        }
+        if (adNetworkPriorities == null || !adNetworkPriorities.isComplete()) {
+            throw new BadRequestException("Priorities for all ad types are required");
+        }
+        if (adNetworkPriorities.hasMissingNetwork()) {
+            throw new BadRequestException("Network names must not be null");
+        }
+    }
+
+    private record LookupKey(String countryCode, PlatformEnum platform, String osVersion) {
     }
-}
\ No newline at end of file
+}
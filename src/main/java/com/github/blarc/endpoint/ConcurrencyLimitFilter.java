@@ -0,0 +1,178 @@
+package com.github.blarc.endpoint;
+
+import com.github.blarc.service.ConcurrencyLimiter;
+import com.github.blarc.service.PrioritiesMetrics;
+import io.quarkus.security.AuthenticationFailedException;
+import io.quarkus.vertx.http.runtime.filters.Filters;
+import io.quarkus.vertx.http.runtime.security.QuarkusHttpUser;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.ext.web.RoutingContext;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.core.HttpHeaders;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+/**
+ * Sheds load instead of queuing it. Public lookups, dashboard reads and processing writes each have their own adaptive
+ * concurrency limit, so a spike of public traffic never starves the admin routes.
+ * <p>
+ * Over the limit, the admin routes and batch lookups fail fast with 503. Single lookups still get a response that is
+ * already built, only lookups that would have to build one fail, see {@link #isShed(RoutingContext)}.
+ * <p>
+ * Admin routes are only counted against their limits once the credentials are authenticated,
+ * unauthenticated requests to them are rejected before they take a slot of any limit.
+ */
+@ApplicationScoped
+public class ConcurrencyLimitFilter {
+
+    static final String ROUTE_PUBLIC = "public";
+    static final String ROUTE_DASHBOARD = "dashboard";
+    static final String ROUTE_PROCESSING = "processing";
+
+    static final String RETRY_AFTER_SECONDS = "1";
+
+    private static final String SHED = "priorities.shed";
+    private static final String ADS_PATH = "/ads";
+    private static final String BATCH_PATH = "/ads/batch";
+    private static final String FILTER_RULES_PATH = "/filter-rules";
+    private static final String DATASETS_PATH = "/datasets";
+    // Before the authentication and the REST routes
+    private static final int PUBLIC_PRIORITY = 1000;
+    // Between the authentication (200) and the authorization (100) filters
+    private static final int ADMIN_PRIORITY = 150;
+
+    @Inject
+    PrioritiesMetrics metrics;
+
+    @ConfigProperty(name = "priorities.limiter.enabled", defaultValue = "true")
+    boolean enabled;
+
+    @ConfigProperty(name = "priorities.limiter.public.initial-limit", defaultValue = "100")
+    int publicInitialLimit;
+
+    @ConfigProperty(name = "priorities.limiter.public.min-limit", defaultValue = "10")
+    int publicMinLimit;
+
+    @ConfigProperty(name = "priorities.limiter.public.max-limit", defaultValue = "1000")
+    int publicMaxLimit;
+
+    @ConfigProperty(name = "priorities.limiter.dashboard.initial-limit", defaultValue = "4")
+    int dashboardInitialLimit;
+
+    @ConfigProperty(name = "priorities.limiter.dashboard.min-limit", defaultValue = "1")
+    int dashboardMinLimit;
+
+    @ConfigProperty(name = "priorities.limiter.dashboard.max-limit", defaultValue = "16")
+    int dashboardMaxLimit;
+
+    @ConfigProperty(name = "priorities.limiter.processing.initial-limit", defaultValue = "2")
+    int processingInitialLimit;
+
+    @ConfigProperty(name = "priorities.limiter.processing.min-limit", defaultValue = "1")
+    int processingMinLimit;
+
+    @ConfigProperty(name = "priorities.limiter.processing.max-limit", defaultValue = "8")
+    int processingMaxLimit;
+
+    private ConcurrencyLimiter publicLimiter;
+    private ConcurrencyLimiter dashboardLimiter;
+    private ConcurrencyLimiter processingLimiter;
+
+    @PostConstruct
+    void init() {
+        publicLimiter = limiter(ROUTE_PUBLIC, publicInitialLimit, publicMinLimit, publicMaxLimit);
+        dashboardLimiter = limiter(ROUTE_DASHBOARD, dashboardInitialLimit, dashboardMinLimit, dashboardMaxLimit);
+        processingLimiter = limiter(ROUTE_PROCESSING, processingInitialLimit, processingMinLimit, processingMaxLimit);
+    }
+
+    void register(@Observes Filters filters) {
+        if (enabled) {
+            filters.register(this::limitPublic, PUBLIC_PRIORITY);
+            filters.register(this::limitAdmin, ADMIN_PRIORITY);
+        }
+    }
+
+    // True if the lookup arrived over the limit, it may only be answered with a response that is already built
+    public static boolean isShed(RoutingContext routingContext) {
+        return routingContext != null && routingContext.get(SHED) != null;
+    }
+
+    ConcurrencyLimiter limiter(String route) {
+        return switch (route) {
+            case ROUTE_PUBLIC -> publicLimiter;
+            case ROUTE_DASHBOARD -> dashboardLimiter;
+            case ROUTE_PROCESSING -> processingLimiter;
+            default -> throw new IllegalArgumentException("Unknown route " + route);
+        };
+    }
+
+    private void limitPublic(RoutingContext routingContext) {
+        String route = route(routingContext.request().method(), routingContext.normalizedPath());
+        if (ROUTE_PUBLIC.equals(route)) {
+            limit(routingContext, route, publicLimiter);
+        } else {
+            routingContext.next();
+        }
+    }
+
+    private void limitAdmin(RoutingContext routingContext) {
+        String route = route(routingContext.request().method(), routingContext.normalizedPath());
+        if (route == null || ROUTE_PUBLIC.equals(route)) {
+            routingContext.next();
+        } else if (isAuthenticated(routingContext)) {
+            limit(routingContext, route, limiter(route));
+        } else {
+            // Every admin route requires a role, the endpoint would reject the request anyway.
+            // The failure handler of the authentication answers with 401 and the challenge.
+            routingContext.fail(new AuthenticationFailedException());
+        }
+    }
+
+    // Requests without credentials carry the anonymous identity, requests with invalid ones never get here
+    private static boolean isAuthenticated(RoutingContext routingContext) {
+        return routingContext.user() instanceof QuarkusHttpUser user && !user.getSecurityIdentity().isAnonymous();
+    }
+
+    private void limit(RoutingContext routingContext, String route, ConcurrencyLimiter limiter) {
+        var request = routingContext.request();
+        if (limiter.tryAcquire()) {
+            long start = System.nanoTime();
+            // Also called when the connection is closed before the response ends
+            routingContext.addEndHandler(ignored -> limiter.release(start));
+            routingContext.next();
+        } else if (request.method() == HttpMethod.GET && ROUTE_PUBLIC.equals(route)) {
+            routingContext.put(SHED, Boolean.TRUE);
+            routingContext.next();
+        } else {
+            routingContext.response()
+                    .setStatusCode(503)
+                    .putHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .putHeader(HttpHeaders.CACHE_CONTROL, "no-store")
+                    .end();
+        }
+    }
+
+    // Null for routes that are not limited, e.g. health checks, metrics and gRPC
+    static String route(HttpMethod method, String path) {
+        if (path.equals(ADS_PATH) || path.startsWith(ADS_PATH + "/")) {
+            if (method == HttpMethod.GET) {
+                return path.length() > ADS_PATH.length() + 1 ? ROUTE_PUBLIC : ROUTE_DASHBOARD;
+            }
+            return method == HttpMethod.POST && path.equals(BATCH_PATH) ? ROUTE_PUBLIC : ROUTE_PROCESSING;
+        }
+        if (path.equals(FILTER_RULES_PATH) || path.startsWith(FILTER_RULES_PATH + "/")
+                || path.equals(DATASETS_PATH) || path.startsWith(DATASETS_PATH + "/")) {
+            return method == HttpMethod.GET ? ROUTE_DASHBOARD : ROUTE_PROCESSING;
+        }
+        return null;
+    }
+
+    private ConcurrencyLimiter limiter(String route, int initialLimit, int minLimit, int maxLimit) {
+        // A window spans roughly one round of the initial limit, at least 10 requests
+        var limiter = new ConcurrencyLimiter(initialLimit, minLimit, maxLimit, Math.max(10, initialLimit));
+        metrics.registerLimiter(route, limiter);
+        return limiter;
+    }
+}
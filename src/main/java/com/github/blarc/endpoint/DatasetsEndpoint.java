@@ -0,0 +1,202 @@
+package com.github.blarc.endpoint;
+
+import com.github.blarc.model.AdNetworkPriorities;
+import com.github.blarc.model.Datasets;
+import com.github.blarc.service.DatasetService;
+import jakarta.annotation.security.DenyAll;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
+import org.eclipse.microprofile.openapi.annotations.media.Content;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.eclipse.microprofile.openapi.annotations.parameters.RequestBody;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
+import org.eclipse.microprofile.openapi.annotations.security.SecurityRequirement;
+import org.eclipse.microprofile.openapi.annotations.tags.Tag;
+
+import java.net.URI;
+import java.util.Map;
+
+
+@DenyAll
+@ApplicationScoped
+@Path("/datasets")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+@Tag(name = "Datasets", description = "Stage complete priority datasets, switch over to them at once and roll back")
+public class DatasetsEndpoint {
+
+    @Inject
+    DatasetService datasetService;
+
+    @GET
+    @RolesAllowed({"dashboard", "processing"})
+    @Operation(
+            summary = "Get datasets",
+            description = "Returns the active dataset, the rollback target and the staged datasets. " +
+                    "Requires 'dashboard' or 'processing' role for access."
+    )
+    @SecurityRequirement(name = "basicAuth")
+    @APIResponses({
+            @APIResponse(
+                    responseCode = "200",
+                    description = "Successfully retrieved datasets",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(implementation = Datasets.class)
+                    )
+            ),
+            @APIResponse(
+                    responseCode = "401",
+                    description = "Authentication required"
+            ),
+            @APIResponse(
+                    responseCode = "403",
+                    description = "Insufficient permissions"
+            )
+    })
+    public Datasets getDatasets() {
+        return datasetService.getDatasets();
+    }
+
+    @POST
+    @RolesAllowed({"processing"})
+    @Operation(
+            summary = "Stage a dataset",
+            description = "Writes a complete set of priorities as a new dataset without changing the served priorities. " +
+                    "Every instance loads it into memory right away, so activating it later only switches over. " +
+                    "Requires 'processing' role for access."
+    )
+    @SecurityRequirement(name = "basicAuth")
+    @APIResponses({
+            @APIResponse(
+                    responseCode = "201",
+                    description = "Dataset staged, the Location header points to its activation",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(implementation = Datasets.class)
+                    )
+            ),
+            @APIResponse(
+                    responseCode = "400",
+                    description = "Empty dataset, invalid request body or country code format"
+            ),
+            @APIResponse(
+                    responseCode = "401",
+                    description = "Authentication required"
+            ),
+            @APIResponse(
+                    responseCode = "403",
+                    description = "Insufficient permissions (requires 'processing' role)"
+            )
+    })
+    public Response stageDataset(
+            @RequestBody(
+                    description = "Map of country codes to ad network priorities, the same body as PUT /ads. " +
+                            "Countries that are missing get the fallback priorities once the dataset is active.",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(type = SchemaType.OBJECT, implementation = Map.class)
+                    )
+            )
+            Map<String, AdNetworkPriorities> priorities
+    ) {
+        if (priorities == null || priorities.isEmpty()) {
+            throw new BadRequestException("A dataset must contain at least one country");
+        }
+        priorities.forEach(AdNetworkPrioritiesEndpoint::validate);
+
+        long dataset = datasetService.stage(priorities);
+        return Response.created(URI.create("/datasets/" + dataset + "/activate"))
+                .entity(datasetService.getDatasets())
+                .build();
+    }
+
+    @POST
+    @Path("/{dataset}/activate")
+    // No request body
+    @Consumes(MediaType.WILDCARD)
+    @RolesAllowed({"processing"})
+    @Operation(
+            summary = "Activate a dataset",
+            description = "Switches every instance over to the dataset with a single pointer update. " +
+                    "Instances keep serving the replaced dataset until the new one is completely in memory. " +
+                    "Requires 'processing' role for access."
+    )
+    @SecurityRequirement(name = "basicAuth")
+    @APIResponses({
+            @APIResponse(
+                    responseCode = "200",
+                    description = "Dataset activated",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(implementation = Datasets.class)
+                    )
+            ),
+            @APIResponse(
+                    responseCode = "401",
+                    description = "Authentication required"
+            ),
+            @APIResponse(
+                    responseCode = "403",
+                    description = "Insufficient permissions (requires 'processing' role)"
+            ),
+            @APIResponse(
+                    responseCode = "404",
+                    description = "Unknown or deleted dataset"
+            )
+    })
+    public Datasets activateDataset(@PathParam("dataset") long dataset) {
+        if (!datasetService.activate(dataset)) {
+            throw new NotFoundException("Unknown dataset " + dataset);
+        }
+        return datasetService.getDatasets();
+    }
+
+    @POST
+    @Path("/rollback")
+    // No request body
+    @Consumes(MediaType.WILDCARD)
+    @RolesAllowed({"processing"})
+    @Operation(
+            summary = "Roll back to the previous dataset",
+            description = "Activates the dataset that was served before the active one. " +
+                    "Instances kept it in memory, so they switch back without reading Redis. " +
+                    "Requires 'processing' role for access."
+    )
+    @SecurityRequirement(name = "basicAuth")
+    @APIResponses({
+            @APIResponse(
+                    responseCode = "200",
+                    description = "Previous dataset activated",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(implementation = Datasets.class)
+                    )
+            ),
+            @APIResponse(
+                    responseCode = "401",
+                    description = "Authentication required"
+            ),
+            @APIResponse(
+                    responseCode = "403",
+                    description = "Insufficient permissions (requires 'processing' role)"
+            ),
+            @APIResponse(
+                    responseCode = "409",
+                    description = "No dataset to roll back to"
+            )
+    })
+    public Datasets rollbackDataset() {
+        if (datasetService.rollback().isEmpty()) {
+            throw new ClientErrorException("No dataset to roll back to", Response.Status.CONFLICT);
+        }
+        return datasetService.getDatasets();
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.blarc.endpoint;
+
+import com.github.blarc.model.CountryCode;
+import com.github.blarc.model.FilterRule;
+import com.github.blarc.model.OsVersion;
+import com.github.blarc.service.FilterRuleEngine;
+import jakarta.annotation.security.DenyAll;
+import jakarta.annotation.security.RolesAllowed;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
+import org.eclipse.microprofile.openapi.annotations.media.Content;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+import org.eclipse.microprofile.openapi.annotations.parameters.RequestBody;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
+import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
+import org.eclipse.microprofile.openapi.annotations.security.SecurityRequirement;
+import org.eclipse.microprofile.openapi.annotations.tags.Tag;
+
+import java.util.List;
+
+
+@DenyAll
+@ApplicationScoped
+@Path("/filter-rules")
+@Produces(MediaType.APPLICATION_JSON)
+@Consumes(MediaType.APPLICATION_JSON)
+@Tag(name = "Filter Rules", description = "Manage rules that filter ad network priorities by country, platform and OS version")
+public class FilterRulesEndpoint {
+
+    @Inject
+    FilterRuleEngine filterRuleEngine;
+
+    @GET
+    @RolesAllowed({"dashboard", "processing"})
+    @Operation(
+            summary = "Get filter rules",
+            description = "Returns the filter rules currently applied to ad network priorities. " +
+                    "Requires 'dashboard' or 'processing' role for access."
+    )
+    @SecurityRequirement(name = "basicAuth")
+    @APIResponses({
+            @APIResponse(
+                    responseCode = "200",
+                    description = "Successfully retrieved filter rules",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(type = SchemaType.ARRAY, implementation = FilterRule.class)
+                    )
+            ),
+            @APIResponse(
+                    responseCode = "401",
+                    description = "Authentication required"
+            ),
+            @APIResponse(
+                    responseCode = "403",
+                    description = "Insufficient permissions"
+            )
+    })
+    public List<FilterRule> getFilterRules() {
+        return filterRuleEngine.getRules();
+    }
+
+    @PUT
+    @RolesAllowed({"processing"})
+    @Operation(
+            summary = "Replace filter rules",
+            description = "Replaces all filter rules. Removals are applied first, appends follow in the given order. " +
+                    "The change is propagated to all instances without a deploy. " +
+                    "Requires 'processing' role for access."
+    )
+    @SecurityRequirement(name = "basicAuth")
+    @APIResponses({
+            @APIResponse(
+                    responseCode = "204",
+                    description = "Filter rules successfully updated"
+            ),
+            @APIResponse(
+                    responseCode = "400",
+                    description = "Invalid filter rule"
+            ),
+            @APIResponse(
+                    responseCode = "401",
+                    description = "Authentication required"
+            ),
+            @APIResponse(
+                    responseCode = "403",
+                    description = "Insufficient permissions (requires 'processing' role)"
+            )
+    })
+    public void updateFilterRules(
+            @RequestBody(
+                    description = "Ordered list of filter rules",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON,
+                            schema = @Schema(
+                                    type = SchemaType.ARRAY,
+                                    implementation = FilterRule.class,
+                                    examples = """
+                            [
+                              {"platform": "ANDROID", "minOsVersion": "9", "maxOsVersion": "10", "action": "REMOVE", "network": "AdMob"},
+                              {"countryCode": "CN", "action": "REMOVE", "network": "Facebook"},
+                              {"action": "APPEND", "network": "AdMob-OptOut", "unlessPresent": "AdMob"}
+                            ]
+                            """
+                            )
+                    )
+            )
+            List<FilterRule> filterRules
+    ) {
+        if (filterRules == null) {
+            throw new BadRequestException("Missing filter rules");
+        }
+        filterRules.forEach(FilterRulesEndpoint::validate);
+        filterRuleEngine.updateRules(filterRules);
+    }
+
+    private static void validate(FilterRule filterRule) {
+        if (filterRule == null || filterRule.action() == null || filterRule.network() == null) {
+            throw new BadRequestException("Filter rule requires an action and a network");
+        }
+        if (filterRule.countryCode() != null && !CountryCode.isValid(filterRule.countryCode())) {
+            throw new BadRequestException("Invalid country code");
+        }
+        if (isInvalidOsVersion(filterRule.minOsVersion()) || isInvalidOsVersion(filterRule.maxOsVersion())) {
+            throw new BadRequestException("Invalid OS version");
+        }
+    }
+
+    private static boolean isInvalidOsVersion(String osVersion) {
+        return osVersion != null && OsVersion.encode(osVersion) == OsVersion.UNKNOWN;
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.blarc.endpoint;
+
+import com.github.blarc.grpc.AdType;
+import com.github.blarc.grpc.AdTypePriorities;
+import com.github.blarc.grpc.Platform;
+import com.github.blarc.grpc.PrioritiesRequest;
+import com.github.blarc.grpc.PrioritiesResponse;
+import com.github.blarc.grpc.PrioritiesService;
+import com.github.blarc.model.AdTypeEnum;
+import com.github.blarc.model.CountryCode;
+import com.github.blarc.model.PlatformEnum;
+import com.github.blarc.service.AdNetworkPrioritiesService;
+import com.github.blarc.service.CompactPriorities;
+import com.github.blarc.service.NetworkRegistry;
+import com.github.blarc.service.PrioritiesMetrics;
+import io.grpc.Status;
+import io.quarkus.grpc.GrpcService;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
+import jakarta.inject.Inject;
+
+// gRPC variant of GET /ads/{country_code} for internal callers, see src/main/proto/priorities.proto
+@GrpcService
+public class PrioritiesGrpcEndpoint implements PrioritiesService {
+
+    @Inject
+    AdNetworkPrioritiesService adNetworkPrioritiesService;
+
+    @Inject
+    NetworkRegistry networkRegistry;
+
+    @Inject
+    PrioritiesMetrics metrics;
+
+    @Override
+    public Uni<PrioritiesResponse> getPriorities(PrioritiesRequest request) {
+        return lookup(request);
+    }
+
+    // Lookups are served from memory, so answering in request order doesn't hold back later requests
+    @Override
+    public Multi<PrioritiesResponse> streamPriorities(Multi<PrioritiesRequest> requests) {
+        return requests.onItem().transformToUniAndConcatenate(this::lookup);
+    }
+
+    private Uni<PrioritiesResponse> lookup(PrioritiesRequest request) {
+        String countryCode = request.getCountryCode();
+        if (!CountryCode.isValid(countryCode)) {
+            return Uni.createFrom().failure(
+                    Status.INVALID_ARGUMENT.withDescription("Invalid country code").asRuntimeException()
+            );
+        }
+
+        var platform = toPlatformEnum(request.getPlatform());
+        // Proto3 strings are never null, an empty one means unknown
+        String osVersion = request.getOsVersion().isEmpty() ? null : request.getOsVersion();
+        var canonicalOsVersion = adNetworkPrioritiesService.canonicalOsVersion(countryCode, platform, osVersion);
+
+        return adNetworkPrioritiesService.getNetworkPriorities(countryCode, platform, canonicalOsVersion)
+                .map(networkPriorities -> {
+                    metrics.recordRequest(countryCode, platform, PrioritiesMetrics.RESULT_OK);
+                    return toResponse(countryCode, networkPriorities);
+                })
+                .onFailure().invoke(() -> metrics.recordRequest(countryCode, platform, PrioritiesMetrics.RESULT_ERROR));
+    }
+
+    private PrioritiesResponse toResponse(String countryCode, CompactPriorities networkPriorities) {
+        var response = PrioritiesResponse.newBuilder()
+                .setCountryCode(countryCode)
+                .setVersion(networkPriorities.version());
+        for (AdTypeEnum adType : AdTypeEnum.values()) {
+            var networkIds = networkPriorities.networkIds(adType);
+            if (networkIds != null) {
+                response.addPriorities(AdTypePriorities.newBuilder()
+                        .setAdType(toAdType(adType))
+                        .addAllNetworks(networkRegistry.decode(networkIds)));
+            }
+        }
+        return response.build();
+    }
+
+    private static PlatformEnum toPlatformEnum(Platform platform) {
+        return switch (platform) {
+            case PLATFORM_ANDROID -> PlatformEnum.ANDROID;
+            case PLATFORM_IOS -> PlatformEnum.IOS;
+            case PLATFORM_UNSPECIFIED, UNRECOGNIZED -> null;
+        };
+    }
+
+    private static AdType toAdType(AdTypeEnum adType) {
+        return switch (adType) {
+            case BANNER -> AdType.AD_TYPE_BANNER;
+            case INTERSTITIAL -> AdType.AD_TYPE_INTERSTITIAL;
+            case REWARDED -> AdType.AD_TYPE_REWARDED;
+        };
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.blarc.health;
+
+import com.github.blarc.model.CircuitStateEnum;
+import com.github.blarc.service.PrioritiesSnapshot;
+import com.github.blarc.service.RedisCircuitBreaker;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Readiness;
+
+/**
+ * Priorities are served from the in-memory snapshot, so a Redis outage alone doesn't make the instance unready.
+ * It is only unready while the circuit isn't closed and no snapshot was ever loaded, neither from Redis nor from the snapshot file,
+ * every request would get the fallback. A half open circuit hasn't proven Redis healthy yet, so it counts as not closed.
+ */
+@Readiness
+@ApplicationScoped
+public class PrioritiesReadinessCheck implements HealthCheck {
+
+    @Inject
+    PrioritiesSnapshot prioritiesSnapshot;
+
+    @Inject
+    RedisCircuitBreaker redisCircuitBreaker;
+
+    @Override
+    public HealthCheckResponse call() {
+        var circuitState = redisCircuitBreaker.state();
+        var lastReload = prioritiesSnapshot.lastReload();
+
+        var response = HealthCheckResponse.named("Ad network priorities")
+                .status(prioritiesSnapshot.isLoaded() || circuitState == CircuitStateEnum.CLOSED)
+                .withData("redisCircuit", circuitState.name())
+                .withData("redisConsecutiveFailures", redisCircuitBreaker.consecutiveFailures())
+                .withData("countries", prioritiesSnapshot.getAll().size())
+                .withData("restoredFromFile", prioritiesSnapshot.isRestored());
+        if (lastReload != null) {
+            response.withData("lastReload", lastReload.toString());
+        }
+        return response.build();
+    }
+}
@@ -4,6 +4,8 @@ import org.eclipse.microprofile.openapi.annotations.media.Schema;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Stream;
 
 import static com.github.blarc.model.AdTypeEnum.*;
 
@@ -24,6 +26,19 @@ public record AdNetworkPriorities(
         );
     }
 
+    // Every ad type has a list of networks
+    public boolean isComplete() {
+        return banner != null && interstitial != null && rewarded != null;
+    }
+
+    // A null element in one of the lists, e.g. from a JSON null
+    public boolean hasMissingNetwork() {
+        return Stream.of(banner, interstitial, rewarded)
+                .filter(Objects::nonNull)
+                .flatMap(List::stream)
+                .anyMatch(Objects::isNull);
+    }
+
     public Map<AdTypeEnum, List<String>> toMap() {
         return Map.of(
                 BANNER, banner,
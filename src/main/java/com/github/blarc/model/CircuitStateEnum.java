@@ -0,0 +1,10 @@
+package com.github.blarc.model;
+
+public enum CircuitStateEnum {
+    // Calls go through, consecutive failures are counted
+    CLOSED,
+    // Calls fail immediately without reaching Redis
+    OPEN,
+    // A single trial call decides whether the circuit closes again
+    HALF_OPEN
+}
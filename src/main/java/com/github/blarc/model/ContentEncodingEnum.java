@@ -0,0 +1,80 @@
+package com.github.blarc.model;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+public enum ContentEncodingEnum {
+    IDENTITY("identity"),
+    GZIP("gzip"),
+    BROTLI("br");
+
+    // Clients send only a handful of distinct headers, so parsed ones are kept up to this many
+    private static final int MAX_PARSED_HEADERS = 64;
+    private static final Set<ContentEncodingEnum> IDENTITY_ONLY = Collections.unmodifiableSet(EnumSet.of(IDENTITY));
+    private static final Map<String, Set<ContentEncodingEnum>> PARSED_HEADERS = new ConcurrentHashMap<>();
+
+    private final String token;
+
+    ContentEncodingEnum(String token) {
+        this.token = token;
+    }
+
+    public String token() {
+        return token;
+    }
+
+    // Parses an Accept-Encoding header, codings with q=0 are treated as not accepted. The returned set is read-only.
+    public static Set<ContentEncodingEnum> accepted(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isBlank()) {
+            return IDENTITY_ONLY;
+        }
+
+        var accepted = PARSED_HEADERS.get(acceptEncoding);
+        if (accepted == null) {
+            accepted = Collections.unmodifiableSet(parse(acceptEncoding));
+            if (PARSED_HEADERS.size() < MAX_PARSED_HEADERS) {
+                PARSED_HEADERS.putIfAbsent(acceptEncoding, accepted);
+            }
+        }
+        return accepted;
+    }
+
+    private static Set<ContentEncodingEnum> parse(String acceptEncoding) {
+        var accepted = EnumSet.of(IDENTITY);
+
+        for (String part : acceptEncoding.split(",")) {
+            int separator = part.indexOf(';');
+            String coding = (separator < 0 ? part : part.substring(0, separator)).trim();
+            if (separator >= 0 && isRejected(part.substring(separator + 1))) {
+                continue;
+            }
+
+            if ("*".equals(coding)) {
+                accepted.addAll(EnumSet.allOf(ContentEncodingEnum.class));
+            }
+            for (ContentEncodingEnum encoding : values()) {
+                if (encoding.token.equalsIgnoreCase(coding)) {
+                    accepted.add(encoding);
+                }
+            }
+        }
+        return accepted;
+    }
+
+    private static boolean isRejected(String parameters) {
+        for (String parameter : parameters.split(";")) {
+            parameter = parameter.trim();
+            if (parameter.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(parameter.substring(2)) == 0;
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,30 @@
+package com.github.blarc.model;
+
+public final class CountryCode {
+
+    private static final int LETTERS = 26;
+
+    // Size of arrays indexed by country code
+    public static final int COUNT = LETTERS * LETTERS;
+
+    private CountryCode() {
+    }
+
+    // Two uppercase letters as in ISO 3166-1 alpha-2, the code itself is not checked against the assigned ones
+    public static boolean isValid(String countryCode) {
+        return index(countryCode) >= 0;
+    }
+
+    // Position of the code in arrays of COUNT elements, -1 if the code is invalid
+    public static int index(String countryCode) {
+        if (countryCode == null || countryCode.length() != 2) {
+            return -1;
+        }
+        int first = countryCode.charAt(0) - 'A';
+        int second = countryCode.charAt(1) - 'A';
+        if (first < 0 || first >= LETTERS || second < 0 || second >= LETTERS) {
+            return -1;
+        }
+        return first * LETTERS + second;
+    }
+}
@@ -0,0 +1,14 @@
+package com.github.blarc.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+// A single NDJSON record of a streamed upload
+public record CountryPriorities(
+        @JsonProperty("country_code")
+        @Schema(description = "Two-letter country code (ISO 3166-1 alpha-2)", examples = "US")
+        String countryCode,
+        @Schema(description = "Priorities of the country")
+        AdNetworkPriorities priorities
+) {
+}
@@ -0,0 +1,15 @@
+package com.github.blarc.model;
+
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.util.List;
+
+public record Datasets(
+        @Schema(description = "Dataset that is served, 0 for the priorities written in place before any dataset was activated")
+        long active,
+        @Schema(description = "Dataset that was served before the active one and that a rollback returns to, null if none")
+        Long previous,
+        @Schema(description = "Staged datasets kept in Redis, oldest first")
+        List<Long> staged
+) {
+}
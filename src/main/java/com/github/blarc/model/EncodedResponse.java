@@ -0,0 +1,101 @@
+package com.github.blarc.model;
+
+// Final response body with its pre-compressed variants, brotli is null when the native library is unavailable.
+// Entity tags are quoted once, so serving a cached response doesn't build any strings.
+public final class EncodedResponse {
+
+    private static final String WEAK_PREFIX = "W/";
+    private static final ContentEncodingEnum[] ENCODINGS = ContentEncodingEnum.values();
+
+    private final byte[] identity;
+    private final byte[] gzip;
+    private final byte[] brotli;
+    private final String etag;
+    // Indexed by encoding ordinal
+    private final String[] quotedTags;
+
+    public EncodedResponse(byte[] identity, byte[] gzip, byte[] brotli, String etag) {
+        this.identity = identity;
+        this.gzip = gzip;
+        this.brotli = brotli;
+        this.etag = etag;
+        quotedTags = new String[ENCODINGS.length];
+        for (ContentEncodingEnum encoding : ENCODINGS) {
+            quotedTags[encoding.ordinal()] = quote(etag, encoding);
+        }
+    }
+
+    public byte[] identity() {
+        return identity;
+    }
+
+    public byte[] gzip() {
+        return gzip;
+    }
+
+    public byte[] brotli() {
+        return brotli;
+    }
+
+    public String etag() {
+        return etag;
+    }
+
+    public ContentEncodingEnum select(String acceptEncoding) {
+        var accepted = ContentEncodingEnum.accepted(acceptEncoding);
+        if (brotli != null && accepted.contains(ContentEncodingEnum.BROTLI)) {
+            return ContentEncodingEnum.BROTLI;
+        }
+        if (accepted.contains(ContentEncodingEnum.GZIP)) {
+            return ContentEncodingEnum.GZIP;
+        }
+        return ContentEncodingEnum.IDENTITY;
+    }
+
+    public byte[] body(ContentEncodingEnum encoding) {
+        return switch (encoding) {
+            case IDENTITY -> identity;
+            case GZIP -> gzip;
+            case BROTLI -> brotli;
+        };
+    }
+
+    // Every encoding is a different representation, so each one gets its own strong entity tag
+    public String etag(ContentEncodingEnum encoding) {
+        return quotedTags[encoding.ordinal()];
+    }
+
+    // Returns the entity tag from If-None-Match that matches this response in any encoding, null if none does
+    public String matchingTag(String ifNoneMatch) {
+        if (ifNoneMatch == null || ifNoneMatch.isBlank()) {
+            return null;
+        }
+        // Clients send back the single tag they received, it is matched without parsing the header
+        for (String quotedTag : quotedTags) {
+            if (quotedTag.equals(ifNoneMatch)) {
+                return quotedTag;
+            }
+        }
+        if ("*".equals(ifNoneMatch.trim())) {
+            return quotedTags[ContentEncodingEnum.IDENTITY.ordinal()];
+        }
+
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            // If-None-Match uses the weak comparison
+            String opaqueTag = tag.startsWith(WEAK_PREFIX) ? tag.substring(WEAK_PREFIX.length()) : tag;
+            for (String quotedTag : quotedTags) {
+                if (opaqueTag.equals(quotedTag)) {
+                    return tag;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String quote(String etag, ContentEncodingEnum encoding) {
+        return encoding == ContentEncodingEnum.IDENTITY
+                ? "\"" + etag + "\""
+                : "\"" + etag + "-" + encoding.token() + "\"";
+    }
+}
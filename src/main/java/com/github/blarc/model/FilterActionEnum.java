@@ -0,0 +1,8 @@
+package com.github.blarc.model;
+
+public enum FilterActionEnum {
+    // Removes the network from the priorities
+    REMOVE,
+    // Appends the network to the end of the priorities
+    APPEND
+}
@@ -0,0 +1,33 @@
+package com.github.blarc.model;
+
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+public record FilterRule(
+        @Schema(description = "Country the rule applies to, any country if omitted", examples = "CN")
+        String countryCode,
+        @Schema(description = "Platform the rule applies to, any platform if omitted")
+        PlatformEnum platform,
+        @Schema(description = "Lowest OS version the rule applies to (inclusive)", examples = "9")
+        String minOsVersion,
+        @Schema(description = "OS version the rule stops applying at (exclusive)", examples = "10")
+        String maxOsVersion,
+        @Schema(description = "What to do with the network", required = true)
+        FilterActionEnum action,
+        @Schema(description = "Network the action is applied to", required = true, examples = "AdMob")
+        String network,
+        @Schema(description = "Only append the network if this network is not present after removals", examples = "AdMob")
+        String unlessPresent
+) {
+
+    public static FilterRule remove(String countryCode, PlatformEnum platform, String minOsVersion, String maxOsVersion, String network) {
+        return new FilterRule(countryCode, platform, minOsVersion, maxOsVersion, FilterActionEnum.REMOVE, network, null);
+    }
+
+    public static FilterRule appendUnlessPresent(String network, String unlessPresent) {
+        return new FilterRule(null, null, null, null, FilterActionEnum.APPEND, network, unlessPresent);
+    }
+
+    public boolean hasOsVersionRange() {
+        return minOsVersion != null || maxOsVersion != null;
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.blarc.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.util.List;
+
+public record IngestResult(
+        @Schema(description = "Number of countries written")
+        int written,
+        @Schema(description = "Number of records that were rejected")
+        int rejected,
+        @Schema(description = "False if the upload was malformed and the records after the error were not read")
+        boolean complete,
+        @Schema(description = "Errors of the rejected records, only the first ones are reported")
+        List<Error> errors
+) {
+
+    public record Error(
+            @Schema(description = "Zero-based index of the record in the upload")
+            int record,
+            @JsonProperty("country_code")
+            @Schema(description = "Country code of the record, if it could be read")
+            String countryCode,
+            String message
+    ) {
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.blarc.model;
+
+public final class OsVersion {
+
+    public static final long UNKNOWN = -1;
+
+    private static final int COMPONENTS = 3;
+    private static final int COMPONENT_BITS = 16;
+    private static final int COMPONENT_MAX = (1 << COMPONENT_BITS) - 1;
+
+    private OsVersion() {
+    }
+
+    // Encodes major.minor.patch into a single comparable long, anything after the leading digits of a component is ignored
+    public static long encode(String osVersion) {
+        if (osVersion == null || osVersion.isEmpty() || !isDigit(osVersion.charAt(0))) {
+            return UNKNOWN;
+        }
+
+        long encoded = 0;
+        int position = 0;
+        for (int component = 0; component < COMPONENTS; component++) {
+            int value = 0;
+            while (position < osVersion.length() && isDigit(osVersion.charAt(position))) {
+                value = Math.min(value * 10 + (osVersion.charAt(position) - '0'), COMPONENT_MAX);
+                position++;
+            }
+            encoded = (encoded << COMPONENT_BITS) | value;
+
+            // Only continue with the next component if it is separated by a dot
+            if (position < osVersion.length() && osVersion.charAt(position) == '.') {
+                position++;
+            } else {
+                encoded <<= (long) COMPONENT_BITS * (COMPONENTS - component - 1);
+                break;
+            }
+        }
+        return encoded;
+    }
+
+    public static String decode(long encoded) {
+        if (encoded == UNKNOWN) {
+            return null;
+        }
+        return String.format("%d.%d.%d",
+                (encoded >>> (2 * COMPONENT_BITS)) & COMPONENT_MAX,
+                (encoded >>> COMPONENT_BITS) & COMPONENT_MAX,
+                encoded & COMPONENT_MAX
+        );
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,17 @@
+package com.github.blarc.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+// A single lookup of a batch request, the same parameters as GET /ads/{country_code}
+public record PrioritiesLookup(
+        @JsonProperty("country_code")
+        @Schema(description = "Two-letter country code (ISO 3166-1 alpha-2)", examples = "US", required = true)
+        String countryCode,
+        @Schema(description = "Mobile platform", examples = "ANDROID")
+        PlatformEnum platform,
+        @JsonProperty("os_version")
+        @Schema(description = "Operating system version", examples = "9.3.1")
+        String osVersion
+) {
+}
@@ -0,0 +1,14 @@
+package com.github.blarc.model;
+
+import org.eclipse.microprofile.openapi.annotations.media.Schema;
+
+import java.util.List;
+import java.util.Map;
+
+public record UpdateSummary(
+        @Schema(description = "Changed ad types of every country that was written")
+        Map<String, List<AdTypeEnum>> changed,
+        @Schema(description = "Number of countries that were already up to date and were not written")
+        int unchanged
+) {
+}
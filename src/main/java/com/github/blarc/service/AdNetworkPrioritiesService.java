@@ -3,11 +3,14 @@ package com.github.blarc.service;
 import com.github.blarc.model.AdNetworkPriorities;
 import com.github.blarc.model.AdTypeEnum;
 import com.github.blarc.model.PlatformEnum;
-import io.quarkus.cache.CacheInvalidateAll;
+import com.github.blarc.model.UpdateSummary;
 import io.quarkus.cache.CacheResult;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
 
+import java.time.Duration;
 import java.util.*;
 
 @ApplicationScoped
@@ -16,6 +19,18 @@ public class AdNetworkPrioritiesService {
     @Inject
     RedisService redisService;
 
+    @Inject
+    PrioritiesSnapshot prioritiesSnapshot;
+
+    @Inject
+    FilterRuleEngine filterRuleEngine;
+
+    @Inject
+    NetworkRegistry networkRegistry;
+
+    @Inject
+    PrioritiesMetrics metrics;
+
     // Fallback networks in case of failure
     private static final Map<AdTypeEnum, List<String>> FALLBACK_NETWORKS = Map.of(
             AdTypeEnum.BANNER, List.of("AdMob", "AdX", "Unity Ads"),
@@ -23,56 +38,106 @@ public class AdNetworkPrioritiesService {
             AdTypeEnum.REWARDED, List.of("Unity Ads", "IronSource", "AdMob")
     );
 
-    // Cache is only needed if filtering or Redis becomes a bottleneck, which is unlikely given Redis's performance.
+    // The priorities are filtered in memory, waiting longer means the caller is starved
+    private static final Duration BLOCKING_TIMEOUT = Duration.ofSeconds(1);
+
+    private CompactPriorities fallbackPriorities;
+
+    @PostConstruct
+    void init() {
+        fallbackPriorities = CompactPriorities.encode(FALLBACK_NETWORKS, 0, networkRegistry);
+    }
+
+    // Priorities are served from the in-memory snapshot, the cache only saves us from re-running the filters.
+    // Nothing on this path blocks, so it can be subscribed to from the event loop.
     @CacheResult(cacheName = "country-priorities")
+    public Uni<CompactPriorities> getNetworkPriorities(String countryCode, PlatformEnum platform, String osVersion) {
+        return Uni.createFrom().item(() -> filterNetworkPriorities(countryCode, platform, osVersion));
+    }
+
+    // Blocking variant for callers running on a worker thread, never for the event loop.
+    // Takes the raw OS version, the cache is keyed by the canonical one like on the endpoints.
     public Map<AdTypeEnum, List<String>> getNetworkPrioritiesMap(String countryCode, PlatformEnum platform, String osVersion) {
-        var adNetworkPriorities = redisService.get(countryCode);
+        String canonicalOsVersion = canonicalOsVersion(countryCode, platform, osVersion);
+        return getNetworkPriorities(countryCode, platform, canonicalOsVersion).await().atMost(BLOCKING_TIMEOUT)
+                .toMap(networkRegistry);
+    }
+
+    // Maps the raw OS version to the lowest version the filter rules treat the same, callers use it as the cache key
+    public String canonicalOsVersion(String countryCode, PlatformEnum platform, String osVersion) {
+        return filterRuleEngine.canonicalOsVersion(countryCode, platform, osVersion);
+    }
+
+    private CompactPriorities filterNetworkPriorities(String countryCode, PlatformEnum platform, String osVersion) {
+        long start = System.nanoTime();
+        var adNetworkPriorities = prioritiesSnapshot.get(countryCode);
         if (adNetworkPriorities == null) {
-            adNetworkPriorities = FALLBACK_NETWORKS;
+            metrics.recordFallback(countryCode, PrioritiesMetrics.FALLBACK_UNKNOWN_COUNTRY);
+            adNetworkPriorities = fallbackPriorities;
         }
 
-        adNetworkPriorities = new HashMap<>(adNetworkPriorities);
+        var filteredNetworkIds = new short[AdTypeEnum.values().length][];
         for (AdTypeEnum adTypeEnum : AdTypeEnum.values()) {
-            var networks = adNetworkPriorities.getOrDefault(adTypeEnum, FALLBACK_NETWORKS.get(adTypeEnum));
-            var filterNetworks = filterNetworks(countryCode, platform, osVersion, networks);
-            adNetworkPriorities.put(adTypeEnum, filterNetworks);
+            var networkIds = adNetworkPriorities.networkIds(adTypeEnum);
+            if (networkIds == null) {
+                metrics.recordFallback(countryCode, PrioritiesMetrics.FALLBACK_MISSING_AD_TYPE);
+                networkIds = fallbackPriorities.networkIds(adTypeEnum);
+            }
+            filteredNetworkIds[adTypeEnum.ordinal()] = filterRuleEngine.filter(countryCode, platform, osVersion, networkIds);
         }
 
-        return adNetworkPriorities;
+        metrics.recordFiltering(start);
+        return new CompactPriorities(filteredNetworkIds, adNetworkPriorities.version());
+    }
+
+    // Entity tag of priorities with the given dataset version, filtered with the given rules
+    static String etag(long version, String rulesFingerprint, PlatformEnum platform, String canonicalOsVersion) {
+        return version + "-" + rulesFingerprint + "-" + platform + "-" + canonicalOsVersion;
     }
 
     public Map<String, Map<AdTypeEnum, List<String>>> getAllNetworkPriorities() {
         return redisService.getAll();
     }
 
-    @CacheInvalidateAll(cacheName = "country-priorities")
-    public void updateAdNetworkPriorities(Map<String, AdNetworkPriorities> prioritiesByCountry) {
-        for (var entry : prioritiesByCountry.entrySet()) {
-            redisService.set(entry.getKey(), entry.getValue().toMap());
-        }
+    // Returns how long the Redis write took
+    public Duration updateAdNetworkPriorities(Map<String, AdNetworkPriorities> prioritiesByCountry) {
+        Map<String, Map<AdTypeEnum, List<String>>> countryPriorities = new HashMap<>();
+        prioritiesByCountry.forEach((countryCode, adNetworkPriorities) ->
+                countryPriorities.put(countryCode, adNetworkPriorities.toMap())
+        );
+
+        long start = System.nanoTime();
+        long version = redisService.setAll(countryPriorities);
+        var redisWriteDuration = Duration.ofNanos(System.nanoTime() - start);
+
+        // Other instances are notified through Redis, apply locally right away.
+        // The snapshot also drops the cached entries of the updated countries.
+        prioritiesSnapshot.putAll(countryPriorities, version);
+        return redisWriteDuration;
     }
 
-    private List<String> filterNetworks(
-            String countryCode,
-            PlatformEnum platform,
-            String osVersion,
-            List<String> networks
-    ) {
-        List<String> filteredNetworks = new ArrayList<>(networks);
-
-        if (platform == PlatformEnum.ANDROID && osVersion.startsWith("9.")) {
-            filteredNetworks.remove("AdMob");
-        }
-
-        if ("CN".equals(countryCode)) {
-            filteredNetworks.remove("Facebook");
+    // Writes only the countries whose content differs from the stored content hashes.
+    // Unchanged countries keep their version, so their cached responses and entity tags stay valid on every instance.
+    public UpdateSummary patchAdNetworkPriorities(Map<String, AdNetworkPriorities> prioritiesByCountry) {
+        var storedHashes = redisService.getContentHashes(prioritiesByCountry.keySet());
+
+        Map<String, AdNetworkPriorities> changedPriorities = new HashMap<>();
+        Map<String, List<AdTypeEnum>> changedAdTypes = new TreeMap<>();
+        prioritiesByCountry.forEach((countryCode, adNetworkPriorities) -> {
+            var hashes = ContentHash.of(adNetworkPriorities.toMap());
+            var stored = storedHashes.get(countryCode);
+            var changed = Arrays.stream(AdTypeEnum.values())
+                    .filter(adType -> hashes[adType.ordinal()] != stored[adType.ordinal()])
+                    .toList();
+            if (!changed.isEmpty()) {
+                changedPriorities.put(countryCode, adNetworkPriorities);
+                changedAdTypes.put(countryCode, changed);
+            }
+        });
+
+        if (!changedPriorities.isEmpty()) {
+            updateAdNetworkPriorities(changedPriorities);
         }
-
-        if (!filteredNetworks.contains("AdMob")) {
-            filteredNetworks.add("AdMob-OptOut");
-        }
-
-        return filteredNetworks;
+        return new UpdateSummary(changedAdTypes, prioritiesByCountry.size() - changedPriorities.size());
     }
-
 }
@@ -0,0 +1,61 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.AdNetworkPriorities;
+import com.github.blarc.model.AdTypeEnum;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable, dictionary-encoded priorities of a single country.
+ * Network IDs are stored per ad type ordinal and arrays are shared between entries whenever the content is the same,
+ * so they must never be modified. The version is the dataset version the country was last written with, 0 if never.
+ */
+public final class CompactPriorities {
+
+    private static final AdTypeEnum[] AD_TYPES = AdTypeEnum.values();
+
+    private final short[][] networkIds;
+    private final long version;
+
+    CompactPriorities(short[][] networkIds, long version) {
+        this.networkIds = networkIds;
+        this.version = version;
+    }
+
+    public static CompactPriorities encode(Map<AdTypeEnum, List<String>> priorities, long version, NetworkRegistry networkRegistry) {
+        var networkIds = new short[AD_TYPES.length][];
+        for (AdTypeEnum adType : AD_TYPES) {
+            var networks = priorities.get(adType);
+            if (networks != null) {
+                networkIds[adType.ordinal()] = networkRegistry.encode(networks);
+            }
+        }
+        return new CompactPriorities(networkIds, version);
+    }
+
+    public long version() {
+        return version;
+    }
+
+    // Null if the ad type has no priorities
+    public short[] networkIds(AdTypeEnum adType) {
+        return networkIds[adType.ordinal()];
+    }
+
+    public Map<AdTypeEnum, List<String>> toMap(NetworkRegistry networkRegistry) {
+        var map = new EnumMap<AdTypeEnum, List<String>>(AdTypeEnum.class);
+        for (AdTypeEnum adType : AD_TYPES) {
+            var ids = networkIds[adType.ordinal()];
+            if (ids != null) {
+                map.put(adType, networkRegistry.decode(ids));
+            }
+        }
+        return map;
+    }
+
+    public AdNetworkPriorities toAdNetworkPriorities(NetworkRegistry networkRegistry) {
+        return AdNetworkPriorities.from(toMap(networkRegistry));
+    }
+}
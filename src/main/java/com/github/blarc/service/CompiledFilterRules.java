@@ -0,0 +1,283 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.FilterActionEnum;
+import com.github.blarc.model.FilterRule;
+import com.github.blarc.model.OsVersion;
+import com.github.blarc.model.PlatformEnum;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Immutable decision table compiled from the filter rules.
+ * <p>
+ * OS versions are split into buckets by the boundaries that appear in the rules, so every
+ * (country, platform, OS version bucket) resolves to a single precomputed {@link Decision}.
+ * Buckets that end up with equal decisions share one canonical OS version, which keeps cache keys bounded.
+ * Removals are applied first, appends follow in rule order.
+ */
+final class CompiledFilterRules {
+
+    private static final PlatformEnum[] PLATFORMS = PlatformEnum.values();
+
+    private final long[] boundaries;
+    private final Map<String, Table> countryTables;
+    private final Table anyCountryTable;
+
+    private CompiledFilterRules(long[] boundaries, Map<String, Table> countryTables, Table anyCountryTable) {
+        this.boundaries = boundaries;
+        this.countryTables = countryTables;
+        this.anyCountryTable = anyCountryTable;
+    }
+
+    static CompiledFilterRules compile(List<FilterRule> rules, NetworkRegistry networkRegistry) {
+        long[] boundaries = rules.stream()
+                .flatMap(rule -> Stream.of(rule.minOsVersion(), rule.maxOsVersion()))
+                .mapToLong(OsVersion::encode)
+                .filter(osVersion -> osVersion != OsVersion.UNKNOWN)
+                .sorted()
+                .distinct()
+                .toArray();
+
+        Set<String> countryCodes = rules.stream()
+                .map(FilterRule::countryCode)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+
+        Map<String, Table> countryTables = new HashMap<>();
+        for (String countryCode : countryCodes) {
+            countryTables.put(countryCode, compileTable(rules, countryCode, boundaries, networkRegistry));
+        }
+
+        return new CompiledFilterRules(
+                boundaries,
+                Map.copyOf(countryTables),
+                compileTable(rules, null, boundaries, networkRegistry)
+        );
+    }
+
+    Decision decisionFor(String countryCode, PlatformEnum platform, String osVersion) {
+        return tableFor(countryCode).decisions()[index(platform, osVersion)];
+    }
+
+    // Lowest OS version that gets the same decision as the given one, null if the decision is the same as for an unknown version
+    String canonicalOsVersion(String countryCode, PlatformEnum platform, String osVersion) {
+        return tableFor(countryCode).canonicalOsVersions()[index(platform, osVersion)];
+    }
+
+    // Index of the canonical (platform, OS version bucket) in arrays of slotCount() elements, equal decisions share a slot
+    int slot(String countryCode, PlatformEnum platform, String osVersion) {
+        return tableFor(countryCode).canonicalSlots()[index(platform, osVersion)];
+    }
+
+    int slotCount() {
+        return (PLATFORMS.length + 1) * bucketCount();
+    }
+
+    PlatformEnum slotPlatform(int slot) {
+        int platformIndex = slot / bucketCount();
+        return platformIndex == 0 ? null : PLATFORMS[platformIndex - 1];
+    }
+
+    String slotOsVersion(String countryCode, int slot) {
+        return tableFor(countryCode).canonicalOsVersions()[slot];
+    }
+
+    private Table tableFor(String countryCode) {
+        return countryTables.getOrDefault(countryCode, anyCountryTable);
+    }
+
+    private int index(PlatformEnum platform, String osVersion) {
+        return platformIndex(platform) * bucketCount() + bucket(OsVersion.encode(osVersion));
+    }
+
+    // Bucket 0 holds unknown versions, bucket i > 0 holds versions with exactly i - 1 boundaries at or below them
+    int bucket(long osVersion) {
+        if (osVersion == OsVersion.UNKNOWN) {
+            return 0;
+        }
+        int index = Arrays.binarySearch(boundaries, osVersion);
+        return 1 + (index >= 0 ? index + 1 : -index - 1);
+    }
+
+    int bucketCount() {
+        return boundaries.length + 2;
+    }
+
+    private static int platformIndex(PlatformEnum platform) {
+        return platform == null ? 0 : platform.ordinal() + 1;
+    }
+
+    private static Table compileTable(
+            List<FilterRule> rules,
+            String countryCode,
+            long[] boundaries,
+            NetworkRegistry networkRegistry
+    ) {
+        int bucketCount = boundaries.length + 2;
+        var decisions = new Decision[(PLATFORMS.length + 1) * bucketCount];
+        var canonicalOsVersions = new String[decisions.length];
+        var canonicalSlots = new int[decisions.length];
+        for (int platformIndex = 0; platformIndex <= PLATFORMS.length; platformIndex++) {
+            PlatformEnum platform = platformIndex == 0 ? null : PLATFORMS[platformIndex - 1];
+            int offset = platformIndex * bucketCount;
+            for (int bucket = 0; bucket < bucketCount; bucket++) {
+                // Every version in a bucket matches the same rules, so the lowest one represents the whole bucket
+                long osVersion = bucket == 0 ? OsVersion.UNKNOWN : bucket == 1 ? 0 : boundaries[bucket - 2];
+                var matchingRules = rules.stream()
+                        .filter(rule -> matches(rule, countryCode, platform, osVersion))
+                        .toList();
+                var decision = Decision.of(matchingRules, networkRegistry);
+
+                // Buckets with an equal decision share the representative version of the first one
+                int canonicalBucket = bucket;
+                for (int previous = 0; previous < bucket; previous++) {
+                    if (decisions[offset + previous].sameAs(decision)) {
+                        canonicalBucket = previous;
+                        break;
+                    }
+                }
+
+                decisions[offset + bucket] = decision;
+                canonicalSlots[offset + bucket] = offset + canonicalBucket;
+                canonicalOsVersions[offset + bucket] = canonicalBucket == bucket
+                        ? OsVersion.decode(osVersion)
+                        : canonicalOsVersions[offset + canonicalBucket];
+            }
+        }
+        return new Table(decisions, canonicalOsVersions, canonicalSlots);
+    }
+
+    private static boolean matches(FilterRule rule, String countryCode, PlatformEnum platform, long osVersion) {
+        if (rule.countryCode() != null && !rule.countryCode().equals(countryCode)) {
+            return false;
+        }
+        if (rule.platform() != null && rule.platform() != platform) {
+            return false;
+        }
+        if (!rule.hasOsVersionRange()) {
+            return true;
+        }
+        if (osVersion == OsVersion.UNKNOWN) {
+            return false;
+        }
+
+        long min = OsVersion.encode(rule.minOsVersion());
+        long max = OsVersion.encode(rule.maxOsVersion());
+        return (min == OsVersion.UNKNOWN || osVersion >= min) && (max == OsVersion.UNKNOWN || osVersion < max);
+    }
+
+    private record Table(Decision[] decisions, String[] canonicalOsVersions, int[] canonicalSlots) {
+    }
+
+    static final class Decision {
+
+        private final long[] removeMask;
+        private final int[] appendIds;
+        private final int[] appendUnlessIds;
+        // Filtered networks by input array. Arrays use identity equality, so each input array of the snapshot gets its own
+        // entry, and the entries go away with the arrays once a reload replaces them.
+        private final Map<short[], short[]> results = Collections.synchronizedMap(new WeakHashMap<>());
+
+        private Decision(long[] removeMask, int[] appendIds, int[] appendUnlessIds) {
+            this.removeMask = removeMask;
+            this.appendIds = appendIds;
+            this.appendUnlessIds = appendUnlessIds;
+        }
+
+        static Decision of(List<FilterRule> rules, NetworkRegistry networkRegistry) {
+            var removed = new BitSet();
+            var appendIds = new ArrayList<Integer>();
+            var appendUnlessIds = new ArrayList<Integer>();
+
+            for (FilterRule rule : rules) {
+                int networkId = networkRegistry.intern(rule.network());
+                if (rule.action() == FilterActionEnum.REMOVE) {
+                    removed.set(networkId);
+                    // A later removal also cancels earlier appends of the same network
+                    for (int i = appendIds.size() - 1; i >= 0; i--) {
+                        if (appendIds.get(i) == networkId) {
+                            appendIds.remove(i);
+                            appendUnlessIds.remove(i);
+                        }
+                    }
+                } else {
+                    appendIds.add(networkId);
+                    appendUnlessIds.add(rule.unlessPresent() == null
+                            ? NetworkRegistry.UNKNOWN
+                            : networkRegistry.intern(rule.unlessPresent()));
+                }
+            }
+
+            return new Decision(
+                    removed.toLongArray(),
+                    appendIds.stream().mapToInt(Integer::intValue).toArray(),
+                    appendUnlessIds.stream().mapToInt(Integer::intValue).toArray()
+            );
+        }
+
+        boolean sameAs(Decision other) {
+            return Arrays.equals(removeMask, other.removeMask)
+                    && Arrays.equals(appendIds, other.appendIds)
+                    && Arrays.equals(appendUnlessIds, other.appendUnlessIds);
+        }
+
+        boolean removes(int networkId) {
+            int word = networkId >>> 6;
+            return word < removeMask.length && (removeMask[word] & (1L << networkId)) != 0;
+        }
+
+        // Returns the given array itself when nothing changes, so unfiltered lists stay shared.
+        // Otherwise the result is built once per input array and reused by later calls.
+        short[] apply(short[] networkIds) {
+            if (!changes(networkIds)) {
+                return networkIds;
+            }
+            return results.computeIfAbsent(networkIds, this::filter);
+        }
+
+        private boolean changes(short[] networkIds) {
+            for (short networkId : networkIds) {
+                if (removes(networkId)) {
+                    return true;
+                }
+            }
+            for (int i = 0; i < appendIds.length; i++) {
+                int unlessId = appendUnlessIds[i];
+                if (unlessId == NetworkRegistry.UNKNOWN || !contains(networkIds, networkIds.length, unlessId)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private short[] filter(short[] networkIds) {
+            var kept = new short[networkIds.length + appendIds.length];
+            int size = 0;
+            for (short networkId : networkIds) {
+                if (!removes(networkId)) {
+                    kept[size++] = networkId;
+                }
+            }
+
+            for (int i = 0; i < appendIds.length; i++) {
+                int unlessId = appendUnlessIds[i];
+                if (unlessId == NetworkRegistry.UNKNOWN || !contains(kept, size, unlessId)) {
+                    kept[size++] = (short) appendIds[i];
+                }
+            }
+
+            return Arrays.copyOf(kept, size);
+        }
+
+        private static boolean contains(short[] networkIds, int size, int networkId) {
+            for (int i = 0; i < size; i++) {
+                if (networkIds[i] == networkId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.blarc.service;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adaptive limit of the requests in flight, adjusted from their measured latency.
+ * <p>
+ * Latencies are averaged over windows of completed requests and compared with the baseline, the lowest recent average.
+ * While the average stays within the tolerance of the baseline the limit grows by its square root, it shrinks by up to half
+ * as the average grows past it. The limit only grows while the requests in flight actually reach half of it,
+ * so a quiet period doesn't leave a limit that was never tested.
+ */
+public final class ConcurrencyLimiter {
+
+    private static final double TOLERANCE = 2.0;
+    private static final double MIN_GRADIENT = 0.5;
+    // Weight of a window in the new limit, damps the reaction to a single noisy window
+    private static final double SMOOTHING = 0.2;
+    // Windows it takes the baseline to drift up to a new, permanently higher latency
+    private static final double BASELINE_WINDOWS = 100;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int windowSize;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+    private volatile int limit;
+
+    // Guarded by this
+    private double exactLimit;
+    private double baselineNanos = Double.MAX_VALUE;
+    private int windowSamples;
+    private long windowLatencyNanos;
+    private int windowMaxInFlight;
+
+    public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, int windowSize) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit || windowSize < 1) {
+            throw new IllegalArgumentException("Limits must satisfy 1 <= min <= initial <= max and the window must not be empty");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.windowSize = windowSize;
+        this.limit = initialLimit;
+        this.exactLimit = initialLimit;
+    }
+
+    // Every acquired request must be released, rejected ones must not
+    public boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= limit) {
+                rejected.increment();
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    public void release(long startNanos) {
+        int released = inFlight.getAndDecrement();
+        onSample(System.nanoTime() - startNanos, released);
+    }
+
+    public int limit() {
+        return limit;
+    }
+
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    public long rejected() {
+        return rejected.sum();
+    }
+
+    synchronized void onSample(long latencyNanos, int inFlightAtCompletion) {
+        windowSamples++;
+        windowLatencyNanos += latencyNanos;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlightAtCompletion);
+        if (windowSamples < windowSize) {
+            return;
+        }
+
+        double averageNanos = (double) windowLatencyNanos / windowSamples;
+        // Drops to a faster window right away, rises slowly so that a latency increase is noticed before it is accepted
+        baselineNanos = baselineNanos == Double.MAX_VALUE
+                ? averageNanos
+                : Math.min(averageNanos, baselineNanos + (averageNanos - baselineNanos) / BASELINE_WINDOWS);
+
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, TOLERANCE * baselineNanos / Math.max(averageNanos, 1)));
+        double newLimit = exactLimit * gradient + Math.sqrt(exactLimit);
+        if (newLimit > exactLimit && windowMaxInFlight < exactLimit / 2) {
+            newLimit = exactLimit;
+        }
+        exactLimit = Math.max(minLimit, Math.min(maxLimit, exactLimit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+        limit = (int) exactLimit;
+
+        windowSamples = 0;
+        windowLatencyNanos = 0;
+        windowMaxInFlight = 0;
+    }
+}
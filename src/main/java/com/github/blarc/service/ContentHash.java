@@ -0,0 +1,46 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.AdTypeEnum;
+
+import java.util.List;
+import java.util.Map;
+
+// Stable 64-bit FNV-1a hashes of the network lists, so every instance computes the same hash for the same content
+final class ContentHash {
+
+    // Stored hashes that are missing read as this value, no content ever hashes to it
+    static final long NONE = 0;
+
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+    private static final AdTypeEnum[] AD_TYPES = AdTypeEnum.values();
+
+    private ContentHash() {
+    }
+
+    // Indexed by ad type ordinal
+    static long[] of(Map<AdTypeEnum, List<String>> countryPriorities) {
+        var hashes = new long[AD_TYPES.length];
+        for (AdTypeEnum adType : AD_TYPES) {
+            hashes[adType.ordinal()] = of(countryPriorities.get(adType));
+        }
+        return hashes;
+    }
+
+    static long of(List<String> networks) {
+        // A missing ad type differs from an empty list
+        if (networks == null) {
+            return 1;
+        }
+
+        long hash = OFFSET_BASIS;
+        for (String network : networks) {
+            for (int i = 0; i < network.length(); i++) {
+                hash = (hash ^ network.charAt(i)) * PRIME;
+            }
+            // Separator, so ["AB"] and ["A", "B"] differ
+            hash = (hash ^ 0xFFFF) * PRIME;
+        }
+        return hash == NONE || hash == 1 ? 2 : hash;
+    }
+}
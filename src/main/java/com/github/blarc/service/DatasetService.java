@@ -0,0 +1,94 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.AdNetworkPriorities;
+import com.github.blarc.model.AdTypeEnum;
+import com.github.blarc.model.Datasets;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+
+/**
+ * Publishes priorities as complete, versioned datasets instead of overwriting the served keys.
+ * A dataset is staged under its own keys while the active one keeps being served, every instance loads it right away.
+ * Activating it flips a single pointer key, rolling back flips it to the dataset it replaced.
+ * Writes through PUT and PATCH /ads keep updating the active dataset in place.
+ */
+@ApplicationScoped
+public class DatasetService {
+
+    private static final Logger LOG = Logger.getLogger(DatasetService.class);
+
+    @Inject
+    RedisService redisService;
+
+    @Inject
+    PrioritiesSnapshot prioritiesSnapshot;
+
+    // Staged datasets kept in Redis besides the active and the previous one
+    @ConfigProperty(name = "priorities.datasets.retained", defaultValue = "3")
+    int retainedDatasets;
+
+    public Datasets getDatasets() {
+        var previous = redisService.getPreviousDataset();
+        return new Datasets(
+                redisService.getActiveDataset(),
+                previous.isPresent() ? previous.getAsLong() : null,
+                redisService.getDatasets()
+        );
+    }
+
+    // Returns the id of the staged dataset
+    public long stage(Map<String, AdNetworkPriorities> prioritiesByCountry) {
+        Map<String, Map<AdTypeEnum, List<String>>> countryPriorities = new HashMap<>();
+        prioritiesByCountry.forEach((countryCode, adNetworkPriorities) ->
+                countryPriorities.put(countryCode, adNetworkPriorities.toMap())
+        );
+
+        long dataset = redisService.stageDataset(countryPriorities);
+        // Other instances are notified through Redis, load locally right away
+        prioritiesSnapshot.prefetch(dataset);
+        deleteExpiredDatasets();
+        return dataset;
+    }
+
+    // False if the dataset doesn't exist
+    public boolean activate(long dataset) {
+        if (!redisService.datasetExists(dataset)) {
+            return false;
+        }
+        redisService.activateDataset(dataset);
+        prioritiesSnapshot.activate(dataset);
+        return true;
+    }
+
+    // Returns the dataset that is served again, empty if there is nothing to roll back to
+    public OptionalLong rollback() {
+        var previous = redisService.getPreviousDataset();
+        if (previous.isEmpty() || !activate(previous.getAsLong())) {
+            return OptionalLong.empty();
+        }
+        return previous;
+    }
+
+    private void deleteExpiredDatasets() {
+        long active = redisService.getActiveDataset();
+        var previous = redisService.getPreviousDataset();
+        var expired = redisService.getDatasets().stream()
+                .filter(dataset -> dataset != active && (previous.isEmpty() || dataset != previous.getAsLong()))
+                .toList();
+        for (int i = 0; i < expired.size() - retainedDatasets; i++) {
+            long dataset = expired.get(i);
+            try {
+                redisService.deleteDataset(dataset);
+            } catch (Exception e) {
+                LOG.warnf(e, "Failed to delete expired dataset %d", dataset);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.FilterRule;
+import com.github.blarc.model.PlatformEnum;
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
+import io.quarkus.redis.datasource.pubsub.PubSubCommands;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+
+// Filter rules are stored in Redis and compiled into a decision table, every instance reloads them on change
+@ApplicationScoped
+public class FilterRuleEngine {
+
+    private static final Logger LOG = Logger.getLogger(FilterRuleEngine.class);
+
+    // Used while no rules are stored in Redis
+    static final List<FilterRule> DEFAULT_RULES = List.of(
+            FilterRule.remove(null, PlatformEnum.ANDROID, "9", "10", "AdMob"),
+            FilterRule.remove("CN", null, null, null, "Facebook"),
+            FilterRule.appendUnlessPresent("AdMob-OptOut", "AdMob")
+    );
+
+    @Inject
+    RedisService redisService;
+
+    @Inject
+    NetworkRegistry networkRegistry;
+
+    @Inject
+    @CacheName("country-priorities")
+    Cache countryPrioritiesCache;
+
+    @Inject
+    PrioritiesResponseCache responseCache;
+
+    private volatile List<FilterRule> rules = DEFAULT_RULES;
+    private volatile CompiledFilterRules compiledRules;
+    private volatile String fingerprint;
+    private PubSubCommands.RedisSubscriber subscriber;
+
+    @PostConstruct
+    void init() {
+        compiledRules = CompiledFilterRules.compile(rules, networkRegistry);
+        fingerprint = fingerprint(rules);
+    }
+
+    void onStart(@Observes StartupEvent event) {
+        reload();
+        subscriber = redisService.subscribeToFilterRulesChanges(() ->
+                Infrastructure.getDefaultWorkerPool().execute(this::reload)
+        );
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        if (subscriber != null) {
+            subscriber.unsubscribe();
+        }
+    }
+
+    public short[] filter(String countryCode, PlatformEnum platform, String osVersion, short[] networkIds) {
+        return compiledRules.decisionFor(countryCode, platform, osVersion).apply(networkIds);
+    }
+
+    public String canonicalOsVersion(String countryCode, PlatformEnum platform, String osVersion) {
+        return compiledRules.canonicalOsVersion(countryCode, platform, osVersion);
+    }
+
+    CompiledFilterRules compiledRules() {
+        return compiledRules;
+    }
+
+    // Identical on every instance for the same rules, used in entity tags
+    public String fingerprint() {
+        return fingerprint;
+    }
+
+    public List<FilterRule> getRules() {
+        return rules;
+    }
+
+    public void updateRules(List<FilterRule> filterRules) {
+        redisService.setFilterRules(filterRules);
+        apply(filterRules);
+    }
+
+    public void reload() {
+        try {
+            var storedRules = redisService.getFilterRules();
+            apply(storedRules == null ? DEFAULT_RULES : storedRules);
+        } catch (Exception e) {
+            LOG.warn("Failed to reload filter rules, keeping the previous ones", e);
+        }
+    }
+
+    private synchronized void apply(List<FilterRule> filterRules) {
+        rules = List.copyOf(filterRules);
+        compiledRules = CompiledFilterRules.compile(rules, networkRegistry);
+        fingerprint = fingerprint(rules);
+
+        // Cached priorities were filtered with the previous rules
+        countryPrioritiesCache.invalidateAll().await().indefinitely();
+        responseCache.invalidateAll();
+    }
+
+    // Every field is hashed explicitly, so the fingerprint doesn't depend on how the rules are printed
+    private static String fingerprint(List<FilterRule> filterRules) {
+        var crc = new CRC32();
+        for (FilterRule rule : filterRules) {
+            update(crc, rule.countryCode());
+            update(crc, rule.platform() == null ? null : rule.platform().name());
+            update(crc, rule.minOsVersion());
+            update(crc, rule.maxOsVersion());
+            update(crc, rule.action() == null ? null : rule.action().name());
+            update(crc, rule.network());
+            update(crc, rule.unlessPresent());
+        }
+        return Long.toHexString(crc.getValue());
+    }
+
+    // Length prefixed, so adjacent fields can't run into each other, a missing field has the length -1
+    private static void update(CRC32 crc, String field) {
+        byte[] bytes = field == null ? null : field.getBytes(StandardCharsets.UTF_8);
+        crc.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes == null ? -1 : bytes.length).flip());
+        if (bytes != null) {
+            crc.update(bytes);
+        }
+    }
+}
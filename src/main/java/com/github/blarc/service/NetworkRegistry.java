@@ -0,0 +1,94 @@
+package com.github.blarc.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Interns network names to small, node-local IDs that fit into a short.
+// Names are never released, the registry holds every name the process has seen until it restarts, at most 32768 of them.
+// Names only come from the priorities and filter rules written by the processing role, a catalogue of tens of networks.
+// Once the limit is reached a new name fails the update that brings it, instead of evicting a name still in use.
+@ApplicationScoped
+public class NetworkRegistry {
+
+    public static final int UNKNOWN = -1;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[0];
+
+    public int intern(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : register(name);
+    }
+
+    public int find(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : UNKNOWN;
+    }
+
+    public String name(int id) {
+        return names[id];
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public short[] encode(List<String> networks) {
+        var networkIds = new short[networks.size()];
+        for (int i = 0; i < networkIds.length; i++) {
+            networkIds[i] = (short) intern(networks.get(i));
+        }
+        return networkIds;
+    }
+
+    // Read-only view, the names are resolved on access instead of being copied
+    public List<String> decode(short[] networkIds) {
+        return new NetworkList(networkIds, names);
+    }
+
+    private synchronized int register(String name) {
+        Integer existing = ids.get(name);
+        if (existing != null) {
+            return existing;
+        }
+
+        int id = names.length;
+        if (id > Short.MAX_VALUE) {
+            throw new IllegalStateException("Too many distinct ad networks, at most " + (Short.MAX_VALUE + 1) + " are supported");
+        }
+        var updated = Arrays.copyOf(names, id + 1);
+        updated[id] = name;
+        // Publish the name before the ID so that name(id) always succeeds for a visible ID
+        names = updated;
+        ids.put(name, id);
+        return id;
+    }
+
+    private static final class NetworkList extends AbstractList<String> implements RandomAccess {
+
+        private final short[] networkIds;
+        // Names only ever grow, so this array already contains every ID in the list
+        private final String[] names;
+
+        private NetworkList(short[] networkIds, String[] names) {
+            this.networkIds = networkIds;
+            this.names = names;
+        }
+
+        @Override
+        public String get(int index) {
+            return names[networkIds[index]];
+        }
+
+        @Override
+        public int size() {
+            return networkIds.length;
+        }
+    }
+}
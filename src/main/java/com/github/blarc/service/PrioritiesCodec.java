@@ -0,0 +1,183 @@
+package com.github.blarc.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.blarc.model.AdTypeEnum;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes the priorities of a country into the raw bytes stored in Redis.
+ * <p>
+ * Values are written as {@code MAGIC, FORMAT_VERSION, ad type count} followed by
+ * {@code ad type ordinal, network count} and the length-prefixed UTF-8 network names of every ad type.
+ * Counts and lengths are unsigned varints. Ordinals are part of the stored format, new ad types may only be appended.
+ * JSON values written before are still read, so no migration is needed.
+ */
+@ApplicationScoped
+public class PrioritiesCodec {
+
+    // Never the first byte of a JSON document
+    private static final byte MAGIC = (byte) 0xB1;
+    private static final byte FORMAT_VERSION = 1;
+    private static final AdTypeEnum[] AD_TYPES = AdTypeEnum.values();
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    // Rolling upgrades: keep writing JSON until every instance can read the binary format
+    @ConfigProperty(name = "priorities.redis.binary-values", defaultValue = "false")
+    boolean binaryValues;
+
+    public byte[] encode(Map<AdTypeEnum, List<String>> priorities) {
+        if (!binaryValues) {
+            try {
+                return objectMapper.writeValueAsBytes(priorities);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        var out = new Output();
+        out.write(MAGIC);
+        out.write(FORMAT_VERSION);
+        out.writeVarInt(priorities.size());
+        priorities.forEach((adType, networks) -> {
+            out.writeVarInt(adType.ordinal());
+            out.writeVarInt(networks.size());
+            for (String network : networks) {
+                byte[] name = network.getBytes(StandardCharsets.UTF_8);
+                out.writeVarInt(name.length);
+                out.write(name);
+            }
+        });
+        return out.toByteArray();
+    }
+
+    public Map<AdTypeEnum, List<String>> decode(byte[] item) {
+        if (item.length == 0 || item[0] != MAGIC) {
+            return decodeJson(item);
+        }
+        // Magic, format version and at least the one byte of the ad type count
+        if (item.length < 3) {
+            throw new IllegalStateException("Truncated priorities value of " + item.length + " bytes");
+        }
+        if (item[1] != FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported priorities format version " + item[1]);
+        }
+
+        var in = new Input(item, 2);
+        int adTypes = in.readVarInt();
+        var priorities = new EnumMap<AdTypeEnum, List<String>>(AdTypeEnum.class);
+        for (int i = 0; i < adTypes; i++) {
+            int ordinal = in.readVarInt();
+            int count = in.readVarInt();
+            // Every network takes at least the byte of its length, so a larger count can't be valid
+            if (count < 0 || count > in.remaining()) {
+                throw new IllegalStateException("Network count " + count + " exceeds the priorities value");
+            }
+            var networks = new ArrayList<String>(count);
+            for (int j = 0; j < count; j++) {
+                networks.add(in.readString());
+            }
+            // Ad types unknown to this version were added by a newer one, they are skipped
+            if (ordinal < AD_TYPES.length) {
+                priorities.put(AD_TYPES[ordinal], networks);
+            }
+        }
+        return priorities;
+    }
+
+    private Map<AdTypeEnum, List<String>> decodeJson(byte[] item) {
+        try {
+            return objectMapper.readValue(item, new TypeReference<>() {});
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static final class Output {
+
+        private byte[] buffer = new byte[128];
+        private int size;
+
+        void write(byte value) {
+            ensureCapacity(1);
+            buffer[size++] = value;
+        }
+
+        void write(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeVarInt(int value) {
+            while ((value & ~0x7F) != 0) {
+                write((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((byte) value);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+            }
+        }
+    }
+
+    private static final class Input {
+
+        private final byte[] buffer;
+        private int position;
+
+        Input(byte[] buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (position >= buffer.length) {
+                    throw new IllegalStateException("Truncated priorities value");
+                }
+                byte b = buffer[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Malformed varint in priorities value");
+        }
+
+        int remaining() {
+            return buffer.length - position;
+        }
+
+        String readString() {
+            int length = readVarInt();
+            if (length < 0 || length > buffer.length - position) {
+                throw new IllegalStateException("Truncated priorities value");
+            }
+            var value = new String(buffer, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.blarc.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.blarc.model.AdNetworkPriorities;
+import com.github.blarc.model.CountryCode;
+import com.github.blarc.model.CountryPriorities;
+import com.github.blarc.model.IngestResult;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads large priorities uploads record by record and writes them in bounded batches.
+ * The next records are only read once the current batch is written, so memory does not depend on the upload size.
+ */
+@ApplicationScoped
+public class PrioritiesIngestService {
+
+    private static final int MAX_REPORTED_ERRORS = 100;
+
+    @Inject
+    AdNetworkPrioritiesService adNetworkPrioritiesService;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    // Countries written with a single Redis transaction
+    @ConfigProperty(name = "priorities.ingest.batch-size", defaultValue = "500")
+    int batchSize;
+
+    // One CountryPriorities object per line, a malformed line only rejects that record
+    public IngestResult ingestNdjson(InputStream input) throws IOException {
+        var batch = new Batch();
+        try (var reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            int record = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                try {
+                    var countryPriorities = objectMapper.readValue(line, CountryPriorities.class);
+                    batch.add(record, countryPriorities.countryCode(), countryPriorities.priorities());
+                } catch (JsonProcessingException e) {
+                    batch.reject(record, null, "Malformed record: " + e.getOriginalMessage());
+                }
+                record++;
+            }
+        }
+        return batch.finish();
+    }
+
+    // The same object as PUT /ads, parsed one country at a time
+    public IngestResult ingestJson(InputStream input) throws IOException {
+        var batch = new Batch();
+        try (var parser = objectMapper.createParser(input)) {
+            int record = 0;
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    batch.abort(record, "Expected an object of country codes to priorities");
+                    return batch.finish();
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String countryCode = parser.currentName();
+                    parser.nextToken();
+                    JsonNode priorities = parser.readValueAsTree();
+                    try {
+                        batch.add(record, countryCode, objectMapper.treeToValue(priorities, AdNetworkPriorities.class));
+                    } catch (JsonProcessingException e) {
+                        batch.reject(record, countryCode, "Malformed priorities: " + e.getOriginalMessage());
+                    }
+                    record++;
+                }
+                if (parser.currentToken() != JsonToken.END_OBJECT) {
+                    batch.abort(record, "Expected a country code");
+                }
+            } catch (JsonProcessingException e) {
+                batch.abort(record, "Malformed JSON: " + e.getOriginalMessage());
+            }
+        }
+        return batch.finish();
+    }
+
+    private final class Batch {
+
+        private final Map<String, AdNetworkPriorities> pending = new HashMap<>();
+        private final List<IngestResult.Error> errors = new ArrayList<>();
+        private int written;
+        private int rejected;
+        private boolean complete = true;
+
+        void add(int record, String countryCode, AdNetworkPriorities priorities) {
+            if (!CountryCode.isValid(countryCode)) {
+                reject(record, countryCode, "Invalid country code");
+                return;
+            }
+            if (priorities == null || !priorities.isComplete()) {
+                reject(record, countryCode, "Priorities for all ad types are required");
+                return;
+            }
+            if (priorities.hasMissingNetwork()) {
+                reject(record, countryCode, "Network names must not be null");
+                return;
+            }
+
+            pending.put(countryCode, priorities);
+            if (pending.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        void reject(int record, String countryCode, String message) {
+            rejected++;
+            report(record, countryCode, message);
+        }
+
+        // The rest of the upload can't be read, records before it are still written
+        void abort(int record, String message) {
+            complete = false;
+            report(record, null, message);
+        }
+
+        private void report(int record, String countryCode, String message) {
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new IngestResult.Error(record, countryCode, message));
+            }
+        }
+
+        IngestResult finish() {
+            flush();
+            return new IngestResult(written, rejected, complete, List.copyOf(errors));
+        }
+
+        private void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            adNetworkPrioritiesService.updateAdNetworkPriorities(Map.copyOf(pending));
+            written += pending.size();
+            pending.clear();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.PlatformEnum;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.smallrye.mutiny.Uni;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of the priorities hot path and of the Redis commands, exported through /q/metrics.
+ * Response table hits and misses are counted here, the filtered priorities cache reports through the Caffeine cache metrics.
+ * Counters are registered once and reused, so recording doesn't allocate on the hot path. Country tags are limited to the configured countries, all others are reported as "other".
+ */
+@ApplicationScoped
+public class PrioritiesMetrics {
+
+    static final String STAGE_CACHE_LOOKUP = "cache_lookup";
+    static final String STAGE_FILTERING = "filtering";
+    static final String STAGE_SERIALIZATION = "serialization";
+    static final String STAGE_COMPRESSION = "compression";
+
+    public static final String RESULT_OK = "ok";
+    public static final String RESULT_NOT_MODIFIED = "not_modified";
+    public static final String RESULT_ERROR = "error";
+
+    static final String FALLBACK_UNKNOWN_COUNTRY = "unknown_country";
+    static final String FALLBACK_MISSING_AD_TYPE = "missing_ad_type";
+
+    private static final String OTHER_COUNTRY = "other";
+    private static final String UNKNOWN_PLATFORM = "unknown";
+    private static final String[] RESULTS = {RESULT_OK, RESULT_NOT_MODIFIED, RESULT_ERROR};
+    private static final String[] FALLBACK_REASONS = {FALLBACK_UNKNOWN_COUNTRY, FALLBACK_MISSING_AD_TYPE};
+    private static final String OUTCOME_SUCCESS = "success";
+    private static final String OUTCOME_FAILURE = "failure";
+    // Commands sent by RedisService, other commands are registered on their first use
+    private static final String[] REDIS_COMMANDS = {
+            "DEL", "GET", "HGET", "HGETALL", "HMGET", "INCR", "MGET", "MULTI",
+            "PUBLISH", "SADD", "SET", "SISMEMBER", "SMEMBERS", "SREM", "SSCAN"
+    };
+    private static final PlatformEnum[] PLATFORMS = PlatformEnum.values();
+
+    @Inject
+    MeterRegistry registry;
+
+    @ConfigProperty(name = "priorities.metrics.countries", defaultValue = "US,IN,BR,ID,DE,GB,MX,JP,FR,RU")
+    Set<String> taggedCountries;
+
+    private Timer cacheLookupTimer;
+    private Timer filteringTimer;
+    private Timer serializationTimer;
+    private Timer compressionTimer;
+    private Counter responseHits;
+    private Counter responseMisses;
+    // Request counters of every country tag, indexed by platform (0 for unknown) and result
+    private final Map<String, Counter[]> requestCounters = new ConcurrentHashMap<>();
+    // Fallback counters of every country tag, indexed by reason
+    private final Map<String, Counter[]> fallbackCounters = new ConcurrentHashMap<>();
+    // Redis timers of every command, the success timer first
+    private final Map<String, Timer[]> redisTimers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        cacheLookupTimer = stageTimer(STAGE_CACHE_LOOKUP);
+        filteringTimer = stageTimer(STAGE_FILTERING);
+        serializationTimer = stageTimer(STAGE_SERIALIZATION);
+        compressionTimer = stageTimer(STAGE_COMPRESSION);
+        responseHits = responseLookupCounter("hit");
+        responseMisses = responseLookupCounter("miss");
+        for (String country : taggedCountries) {
+            fallbackCounters.put(country, fallbackCounters(country));
+        }
+        fallbackCounters.put(OTHER_COUNTRY, fallbackCounters(OTHER_COUNTRY));
+        for (String command : REDIS_COMMANDS) {
+            redisTimers.put(command, redisTimers(command));
+        }
+    }
+
+    public void recordCacheLookup(long startNanos) {
+        cacheLookupTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordFiltering(long startNanos) {
+        filteringTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordSerialization(long startNanos) {
+        serializationTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordCompression(long startNanos) {
+        compressionTimer.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordResponseLookup(boolean hit) {
+        (hit ? responseHits : responseMisses).increment();
+    }
+
+    public void recordRequest(String countryCode, PlatformEnum platform, String result) {
+        String country = countryTag(countryCode);
+        var counters = requestCounters.get(country);
+        if (counters == null) {
+            counters = requestCounters.computeIfAbsent(country, this::requestCounters);
+        }
+
+        int platformIndex = platform == null ? 0 : platform.ordinal() + 1;
+        int resultIndex = 0;
+        while (!RESULTS[resultIndex].equals(result)) {
+            resultIndex++;
+        }
+        counters[platformIndex * RESULTS.length + resultIndex].increment();
+    }
+
+    public void recordFallback(String countryCode, String reason) {
+        var counters = fallbackCounters.get(countryTag(countryCode));
+        counters[FALLBACK_UNKNOWN_COUNTRY.equals(reason) ? 0 : 1].increment();
+    }
+
+    // Exposes the state of the concurrency limiter of a route class, read on every scrape
+    public void registerLimiter(String route, ConcurrencyLimiter limiter) {
+        Gauge.builder("priorities.limiter.limit", limiter, ConcurrencyLimiter::limit)
+                .description("Current adaptive concurrency limit")
+                .tag("route", route)
+                .register(registry);
+        Gauge.builder("priorities.limiter.in_flight", limiter, ConcurrencyLimiter::inFlight)
+                .description("Requests in flight counted against the concurrency limit")
+                .tag("route", route)
+                .register(registry);
+        FunctionCounter.builder("priorities.limiter.rejected", limiter, ConcurrencyLimiter::rejected)
+                .description("Requests that arrived while the concurrency limit was reached")
+                .tag("route", route)
+                .register(registry);
+    }
+
+    public <T> T timeRedis(String command, Supplier<T> call) {
+        long start = System.nanoTime();
+        boolean success = false;
+        try {
+            T result = call.get();
+            success = true;
+            return result;
+        } finally {
+            redisTimer(command, success).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public <T> Uni<T> timeRedisAsync(String command, Supplier<Uni<T>> call) {
+        return Uni.createFrom().deferred(() -> {
+            long start = System.nanoTime();
+            return call.get().onItemOrFailure().invoke((item, failure) ->
+                    redisTimer(command, failure == null)
+                            .record(System.nanoTime() - start, TimeUnit.NANOSECONDS)
+            );
+        });
+    }
+
+    private Counter[] requestCounters(String country) {
+        var counters = new Counter[(PLATFORMS.length + 1) * RESULTS.length];
+        for (int platformIndex = 0; platformIndex <= PLATFORMS.length; platformIndex++) {
+            for (int resultIndex = 0; resultIndex < RESULTS.length; resultIndex++) {
+                counters[platformIndex * RESULTS.length + resultIndex] = Counter.builder("priorities.requests")
+                        .description("Priorities lookups by country, platform and result")
+                        .tag("country", country)
+                        .tag("platform", platformIndex == 0 ? UNKNOWN_PLATFORM : PLATFORMS[platformIndex - 1].name())
+                        .tag("result", RESULTS[resultIndex])
+                        .register(registry);
+            }
+        }
+        return counters;
+    }
+
+    private Counter[] fallbackCounters(String country) {
+        var counters = new Counter[FALLBACK_REASONS.length];
+        for (int i = 0; i < FALLBACK_REASONS.length; i++) {
+            counters[i] = Counter.builder("priorities.fallback")
+                    .description("Lookups that were answered with the fallback networks")
+                    .tag("country", country)
+                    .tag("reason", FALLBACK_REASONS[i])
+                    .register(registry);
+        }
+        return counters;
+    }
+
+    private Counter responseLookupCounter(String result) {
+        return Counter.builder("priorities.responses.lookups")
+                .description("Lookups of built responses, a miss filters, serializes and compresses the priorities")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    private Timer stageTimer(String stage) {
+        return Timer.builder("priorities.stage")
+                .description("Latency of the stages of a priorities lookup")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(100))
+                .maximumExpectedValue(Duration.ofMillis(100))
+                .register(registry);
+    }
+
+    private Timer redisTimer(String command, boolean success) {
+        var timers = redisTimers.get(command);
+        if (timers == null) {
+            timers = redisTimers.computeIfAbsent(command, this::redisTimers);
+        }
+        return timers[success ? 0 : 1];
+    }
+
+    private Timer[] redisTimers(String command) {
+        return new Timer[]{redisTimer(command, OUTCOME_SUCCESS), redisTimer(command, OUTCOME_FAILURE)};
+    }
+
+    private Timer redisTimer(String command, String outcome) {
+        return Timer.builder("priorities.redis.commands")
+                .description("Redis commands sent by the service")
+                .tag("command", command)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(50_000))
+                .maximumExpectedValue(Duration.ofSeconds(1))
+                .register(registry);
+    }
+
+    private String countryTag(String countryCode) {
+        return taggedCountries.contains(countryCode) ? countryCode : OTHER_COUNTRY;
+    }
+}
@@ -0,0 +1,210 @@
+package com.github.blarc.service;
+
+import com.aayushatharva.brotli4j.Brotli4jLoader;
+import com.aayushatharva.brotli4j.encoder.Encoder;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.blarc.model.AdNetworkPriorities;
+import com.github.blarc.model.CountryCode;
+import com.github.blarc.model.EncodedResponse;
+import com.github.blarc.model.PlatformEnum;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.jboss.logging.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.GZIPOutputStream;
+
+@ApplicationScoped
+public class PrioritiesResponseCache {
+
+    private static final Logger LOG = Logger.getLogger(PrioritiesResponseCache.class);
+
+    private static final boolean BROTLI_AVAILABLE = Brotli4jLoader.isAvailable();
+    // The default quality 11 takes about a millisecond for these small bodies and is not any smaller than quality 5
+    private static final Encoder.Parameters BROTLI_PARAMETERS = new Encoder.Parameters().setQuality(5);
+
+    @Inject
+    AdNetworkPrioritiesService adNetworkPrioritiesService;
+
+    @Inject
+    FilterRuleEngine filterRuleEngine;
+
+    @Inject
+    NetworkRegistry networkRegistry;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    PrioritiesMetrics metrics;
+
+    // Responses built with the current filter rules, replaced when the rules change
+    private volatile Table table;
+
+    @PostConstruct
+    void init() {
+        table = new Table(filterRuleEngine.compiledRules());
+    }
+
+    // Allocation free lookup for the hot path, null if the response was not built yet. The country code must be valid.
+    public EncodedResponse getIfPresent(String countryCode, PlatformEnum platform, String osVersion) {
+        var currentTable = table;
+        var encodedResponse = lookup(currentTable, countryCode, currentTable.rules.slot(countryCode, platform, osVersion));
+        metrics.recordResponseLookup(encodedResponse != null);
+        return encodedResponse;
+    }
+
+    // Serialization and compression only happen once per country and filter rule slot, until the country or the rules change.
+    // Concurrent misses of the same slot may both build the response, the result is the same.
+    public Uni<EncodedResponse> get(String countryCode, PlatformEnum platform, String osVersion) {
+        var currentTable = table;
+        int slot = currentTable.rules.slot(countryCode, platform, osVersion);
+        var encodedResponse = lookup(currentTable, countryCode, slot);
+        metrics.recordResponseLookup(encodedResponse != null);
+        return encodedResponse != null ? Uni.createFrom().item(encodedResponse) : load(currentTable, countryCode, slot);
+    }
+
+    // For callers that already missed with getIfPresent, builds and caches the response
+    public Uni<EncodedResponse> load(String countryCode, PlatformEnum platform, String osVersion) {
+        var currentTable = table;
+        return load(currentTable, countryCode, currentTable.rules.slot(countryCode, platform, osVersion));
+    }
+
+    // Drops the responses of the given countries, must run after the snapshot is replaced.
+    // Responses that were built are the ones clients ask for, they are rebuilt right away.
+    public void invalidate(Set<String> countryCodes) {
+        var currentTable = table;
+        Map<String, List<Integer>> hotSlots = new HashMap<>();
+        for (String countryCode : countryCodes) {
+            int country = CountryCode.index(countryCode);
+            var row = country < 0 ? null : currentTable.rows.getAndSet(country, null);
+            if (row == null) {
+                continue;
+            }
+            for (int slot = 0; slot < row.length(); slot++) {
+                if (row.get(slot) != null) {
+                    hotSlots.computeIfAbsent(countryCode, key -> new ArrayList<>()).add(slot);
+                }
+            }
+        }
+        refreshAhead(currentTable, hotSlots);
+    }
+
+    public void invalidateAll() {
+        table = new Table(filterRuleEngine.compiledRules());
+    }
+
+    // Builds the response without caching it
+    Uni<EncodedResponse> build(String countryCode, PlatformEnum platform, String canonicalOsVersion) {
+        // Read before the lookup, so the tag never claims newer rules than the body was filtered with
+        var rulesFingerprint = filterRuleEngine.fingerprint();
+        return adNetworkPrioritiesService.getNetworkPriorities(countryCode, platform, canonicalOsVersion)
+                .map(networkPriorities -> encode(
+                        networkPriorities.toAdNetworkPriorities(networkRegistry),
+                        AdNetworkPrioritiesService.etag(networkPriorities.version(), rulesFingerprint, platform, canonicalOsVersion)
+                ));
+    }
+
+    private static EncodedResponse lookup(Table currentTable, String countryCode, int slot) {
+        var row = currentTable.rows.get(CountryCode.index(countryCode));
+        return row == null ? null : row.get(slot);
+    }
+
+    private Uni<EncodedResponse> load(Table currentTable, String countryCode, int slot) {
+        // The row is taken before the priorities are read. If the country changes in between, the row is dropped
+        // by the invalidation and the outdated response never becomes visible.
+        var row = currentTable.row(CountryCode.index(countryCode));
+        return build(countryCode, currentTable.rules.slotPlatform(slot), currentTable.rules.slotOsVersion(countryCode, slot))
+                .invoke(encodedResponse -> row.set(slot, encodedResponse));
+    }
+
+    private void refreshAhead(Table currentTable, Map<String, List<Integer>> hotSlots) {
+        if (hotSlots.isEmpty()) {
+            return;
+        }
+
+        // Filtering and compression are CPU bound, keep them off the I/O thread
+        Infrastructure.getDefaultWorkerPool().execute(() -> hotSlots.forEach((countryCode, slots) -> {
+            for (int slot : slots) {
+                load(currentTable, countryCode, slot).subscribe().with(
+                        ignored -> { },
+                        failure -> LOG.warnf(failure, "Failed to refresh cached priorities for %s", countryCode)
+                );
+            }
+        }));
+    }
+
+    private EncodedResponse encode(AdNetworkPriorities adNetworkPriorities, String etag) {
+        long start = System.nanoTime();
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(adNetworkPriorities);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize ad network priorities", e);
+        }
+        metrics.recordSerialization(start);
+
+        start = System.nanoTime();
+        var encodedResponse = new EncodedResponse(json, gzip(json), brotli(json), etag);
+        metrics.recordCompression(start);
+        return encodedResponse;
+    }
+
+    private static byte[] gzip(byte[] body) {
+        var out = new ByteArrayOutputStream(body.length);
+        try (var gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] brotli(byte[] body) {
+        if (!BROTLI_AVAILABLE) {
+            return null;
+        }
+        try {
+            return Encoder.compress(body, BROTLI_PARAMETERS);
+        } catch (IOException e) {
+            LOG.warn("Brotli compression failed, serving gzip instead", e);
+            return null;
+        }
+    }
+
+    // Dense table of responses, one row per country code with one slot per canonical (platform, OS version bucket)
+    private static final class Table {
+
+        private final CompiledFilterRules rules;
+        private final AtomicReferenceArray<AtomicReferenceArray<EncodedResponse>> rows =
+                new AtomicReferenceArray<>(CountryCode.COUNT);
+
+        private Table(CompiledFilterRules rules) {
+            this.rules = rules;
+        }
+
+        private AtomicReferenceArray<EncodedResponse> row(int country) {
+            var row = rows.get(country);
+            if (row == null) {
+                var created = new AtomicReferenceArray<EncodedResponse>(rules.slotCount());
+                row = rows.compareAndExchange(country, null, created);
+                if (row == null) {
+                    row = created;
+                }
+            }
+            return row;
+        }
+    }
+}
@@ -0,0 +1,444 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.AdTypeEnum;
+import io.quarkus.cache.Cache;
+import io.quarkus.cache.CacheName;
+import io.quarkus.cache.CompositeCacheKey;
+import io.quarkus.redis.datasource.pubsub.PubSubCommands;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.vertx.core.Vertx;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * Node-local, immutable copy of all country priorities stored in Redis.
+ * Reads never touch Redis; the snapshot is replaced atomically whenever a change is published.
+ * Cached entries of the changed countries are dropped right after, on every node.
+ * When Redis fails the last known good priorities keep being served.
+ * Every change is also persisted to the {@link PrioritiesSnapshotFile}, which a starting instance serves until Redis answers.
+ * <p>
+ * Staged datasets are loaded as soon as they are written, so activating one only swaps the snapshot.
+ * The datasets replaced by an activation stay in memory as well, a rollback doesn't read Redis either.
+ */
+@ApplicationScoped
+public class PrioritiesSnapshot {
+
+    private static final Logger LOG = Logger.getLogger(PrioritiesSnapshot.class);
+
+    @Inject
+    RedisService redisService;
+
+    @Inject
+    NetworkRegistry networkRegistry;
+
+    @Inject
+    PrioritiesSnapshotFile snapshotFile;
+
+    @Inject
+    Vertx vertx;
+
+    @Inject
+    PrioritiesResponseCache responseCache;
+
+    @Inject
+    @CacheName("country-priorities")
+    Cache countryPrioritiesCache;
+
+    // Full reload as a safety net in case a change notification is missed
+    @ConfigProperty(name = "priorities.snapshot.resync-interval", defaultValue = "5m")
+    Duration resyncInterval;
+
+    // Inactive datasets kept in memory, staged ones and the ones replaced by an activation
+    @ConfigProperty(name = "priorities.datasets.retained", defaultValue = "3")
+    int retainedDatasets;
+
+    private volatile Map<String, CompactPriorities> priorities = Map.of();
+    // Null until the first successful full reload, until then every country gets the fallback priorities
+    private volatile Instant lastReload;
+    private volatile boolean restored;
+    // Guarded by this. Version counter of Redis the priorities are at least as new as, it orders the snapshot files.
+    private long generation;
+    // Number of refreshes requested per country while a read is in flight, capped at 2
+    private final Map<String, Integer> pendingRefreshes = new ConcurrentHashMap<>();
+    // Guarded by this. Full loads read Redis without holding the monitor, only the latest one started may swap its result in.
+    private long loadSequence;
+    // Guarded by this, countries updated since the latest full load started
+    private final Set<String> updatedDuringLoad = new HashSet<>();
+    // Guarded by this, the least recently added dataset is dropped first
+    private final Map<Long, Map<String, CompactPriorities>> loadedDatasets = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Map<String, CompactPriorities>> eldest) {
+            return size() > retainedDatasets;
+        }
+    };
+    private PubSubCommands.RedisSubscriber subscriber;
+    private PubSubCommands.RedisSubscriber datasetsSubscriber;
+    private long resyncTimerId;
+
+    void onStart(@Observes StartupEvent event) {
+        var restoredSnapshot = snapshotFile.read();
+        if (restoredSnapshot.priorities().isEmpty()) {
+            reload();
+        } else {
+            // Serve the restored priorities right away, Redis may be slow or unreachable while the instance starts
+            synchronized (this) {
+                priorities = restoredSnapshot.priorities();
+                generation = restoredSnapshot.generation();
+            }
+            restored = true;
+            Infrastructure.getDefaultWorkerPool().execute(this::reload);
+        }
+        // Messages are delivered on the I/O thread, so the country is re-read without blocking
+        subscriber = redisService.subscribeToChanges(this::refreshAsync);
+        // Loading a dataset reads every country, so it runs on a worker thread
+        datasetsSubscriber = redisService.subscribeToDatasetChanges(
+                dataset -> Infrastructure.getDefaultWorkerPool().execute(() -> prefetch(dataset)),
+                dataset -> Infrastructure.getDefaultWorkerPool().execute(this::activateCurrent)
+        );
+        resyncTimerId = vertx.setPeriodic(resyncInterval.toMillis(), id ->
+                Infrastructure.getDefaultWorkerPool().execute(this::reload)
+        );
+    }
+
+    void onStop(@Observes ShutdownEvent event) {
+        vertx.cancelTimer(resyncTimerId);
+        if (subscriber != null) {
+            subscriber.unsubscribe();
+        }
+        if (datasetsSubscriber != null) {
+            datasetsSubscriber.unsubscribe();
+        }
+    }
+
+    public CompactPriorities get(String countryCode) {
+        return priorities.get(countryCode);
+    }
+
+    public Map<String, CompactPriorities> getAll() {
+        return priorities;
+    }
+
+    private synchronized PrioritiesSnapshotFile.Contents contents() {
+        return new PrioritiesSnapshotFile.Contents(generation, priorities);
+    }
+
+    public Instant lastReload() {
+        return lastReload;
+    }
+
+    // True once the snapshot holds real priorities, either reloaded from Redis or restored from the file
+    public boolean isLoaded() {
+        return lastReload != null || restored;
+    }
+
+    public boolean isRestored() {
+        return restored;
+    }
+
+    public void reload() {
+        // Taken before the pointer is read, so an activation that starts later always wins
+        long load = startLoad();
+        try {
+            // Also catches up with an activation whose notification was missed
+            long activeDataset = redisService.getActiveDataset();
+            if (activeDataset != redisService.activeDataset()) {
+                activate(load, activeDataset);
+                return;
+            }
+
+            // Read before the priorities, every write after it has a higher version
+            long loadGeneration = redisService.getVersionCounter();
+            var loaded = encode(redisService.getAll(), redisService.getVersions());
+            Map<String, CompactPriorities> previous;
+            synchronized (this) {
+                if (load != loadSequence) {
+                    LOG.debug("Dropping a reloaded snapshot, a newer load has started");
+                    return;
+                }
+                previous = priorities;
+                priorities = merge(loaded, previous, updatedDuringLoad);
+                generation = Math.max(generation, loadGeneration);
+                updatedDuringLoad.clear();
+                lastReload = Instant.now();
+            }
+
+            var changed = changedCountries(previous, priorities);
+            invalidate(changed);
+            if (!changed.isEmpty()) {
+                snapshotFile.writeAsync(this::contents);
+            }
+        } catch (Exception e) {
+            LOG.warn("Failed to reload priorities snapshot, keeping the previous one", e);
+        }
+    }
+
+    private synchronized long startLoad() {
+        updatedDuringLoad.clear();
+        return ++loadSequence;
+    }
+
+    // Countries updated while the load was reading Redis keep their updated priorities
+    private static Map<String, CompactPriorities> merge(
+            Map<String, CompactPriorities> loaded,
+            Map<String, CompactPriorities> current,
+            Set<String> updated
+    ) {
+        if (updated.isEmpty()) {
+            return loaded;
+        }
+        var merged = new HashMap<>(loaded);
+        for (String countryCode : updated) {
+            var countryPriorities = current.get(countryCode);
+            if (countryPriorities == null) {
+                merged.remove(countryCode);
+            } else {
+                merged.put(countryCode, countryPriorities);
+            }
+        }
+        return Map.copyOf(merged);
+    }
+
+    // Loads a staged dataset ahead of its activation
+    public void prefetch(long dataset) {
+        synchronized (this) {
+            if (dataset == redisService.activeDataset() || loadedDatasets.containsKey(dataset)) {
+                return;
+            }
+        }
+        try {
+            var loaded = load(dataset);
+            synchronized (this) {
+                // Activated and replaced again while loading, the kept copy also holds the updates since then
+                if (dataset != redisService.activeDataset()) {
+                    loadedDatasets.putIfAbsent(dataset, loaded);
+                }
+            }
+        } catch (Exception e) {
+            LOG.warnf(e, "Failed to load dataset %d ahead of its activation", dataset);
+        }
+    }
+
+    // Serves the dataset from now on, the replaced one is kept in memory for a rollback.
+    // Until the dataset is loaded completely, the previous one keeps being served.
+    public void activate(long dataset) {
+        activate(startLoad(), dataset);
+    }
+
+    private void activate(long load, long dataset) {
+        long replacedDataset = redisService.activeDataset();
+        if (dataset == replacedDataset && lastReload != null) {
+            return;
+        }
+
+        try {
+            // Covers the activation, which increments the counter before it notifies the instances
+            long loadGeneration = redisService.getVersionCounter();
+            Map<String, CompactPriorities> loaded;
+            synchronized (this) {
+                loaded = loadedDatasets.get(dataset);
+            }
+            if (loaded == null) {
+                loaded = load(dataset);
+            }
+
+            Map<String, CompactPriorities> previous;
+            Set<String> updated;
+            synchronized (this) {
+                if (load != loadSequence) {
+                    LOG.debugf("Dropping dataset %d, a newer load has started", dataset);
+                    return;
+                }
+                replacedDataset = redisService.activeDataset();
+                previous = priorities;
+                loadedDatasets.remove(dataset);
+                redisService.useDataset(dataset);
+                priorities = loaded;
+                generation = Math.max(generation, loadGeneration);
+                // Priorities restored from the file are not known to belong to the replaced dataset
+                if (lastReload != null && replacedDataset != dataset) {
+                    loadedDatasets.put(replacedDataset, previous);
+                }
+                lastReload = Instant.now();
+                updated = Set.copyOf(updatedDuringLoad);
+                updatedDuringLoad.clear();
+            }
+
+            invalidate(changedCountries(previous, loaded));
+            // Read from the replaced dataset while this one was loading, the loaded copy may not have them yet
+            updated.forEach(this::refreshAsync);
+            snapshotFile.writeAsync(this::contents);
+            LOG.infof("Activated dataset %d, replacing dataset %d", dataset, replacedDataset);
+        } catch (Exception e) {
+            LOG.warnf(e, "Failed to activate dataset %d, keeping dataset %d", dataset, replacedDataset);
+        }
+    }
+
+    // Notifications may arrive late, e.g. after a rollback, so the pointer decides which dataset is served
+    private void activateCurrent() {
+        // Taken before the pointer is read, like in reload()
+        long load = startLoad();
+        try {
+            activate(load, redisService.getActiveDataset());
+        } catch (Exception e) {
+            LOG.warn("Failed to read the active dataset", e);
+        }
+    }
+
+    private Map<String, CompactPriorities> load(long dataset) {
+        return encode(redisService.getAll(dataset), redisService.getVersions(dataset));
+    }
+
+    private Map<String, CompactPriorities> encode(
+            Map<String, Map<AdTypeEnum, List<String>>> prioritiesByCountry,
+            Map<String, Long> versions
+    ) {
+        return prioritiesByCountry.entrySet().stream()
+                .collect(Collectors.toUnmodifiableMap(
+                        Map.Entry::getKey,
+                        entry -> CompactPriorities.encode(
+                                entry.getValue(),
+                                versions.getOrDefault(entry.getKey(), 0L),
+                                networkRegistry
+                        )
+                ));
+    }
+
+    public void refresh(String countryCode) {
+        try {
+            put(countryCode, redisService.get(countryCode), redisService.getVersion(countryCode));
+        } catch (Exception e) {
+            LOG.warnf(e, "Failed to refresh priorities snapshot for %s", countryCode);
+        }
+    }
+
+    // A burst of changes to one country results in at most two reads: the one in flight and one more after it
+    void refreshAsync(String countryCode) {
+        if (pendingRefreshes.merge(countryCode, 1, (pending, ignored) -> 2) == 1) {
+            readAsync(countryCode);
+        }
+    }
+
+    private void readAsync(String countryCode) {
+        long dataset = redisService.activeDataset();
+        Uni.combine().all()
+                .unis(redisService.getAsync(countryCode), redisService.getVersionAsync(countryCode))
+                .asTuple()
+                // Completes on the Redis I/O thread, which must not wait for the monitor
+                .emitOn(Infrastructure.getDefaultWorkerPool())
+                .subscribe().with(
+                        result -> {
+                            if (!putAll(changes(countryCode, result.getItem1()), result.getItem2(), dataset)) {
+                                // Read from a replaced dataset, read again from the activated one
+                                pendingRefreshes.put(countryCode, 2);
+                            }
+                            completeRefresh(countryCode);
+                        },
+                        failure -> {
+                            LOG.warnf(failure, "Failed to refresh priorities snapshot for %s", countryCode);
+                            completeRefresh(countryCode);
+                        }
+                );
+    }
+
+    private void completeRefresh(String countryCode) {
+        // Changes published during the read may be missing from its result, so read once more
+        if (pendingRefreshes.compute(countryCode, (key, pending) -> pending > 1 ? 1 : null) != null) {
+            readAsync(countryCode);
+        }
+    }
+
+    // Null priorities remove the country from the snapshot
+    public void put(String countryCode, Map<AdTypeEnum, List<String>> countryPriorities, long version) {
+        putAll(changes(countryCode, countryPriorities), version);
+    }
+
+    public void putAll(Map<String, Map<AdTypeEnum, List<String>>> prioritiesByCountry, long version) {
+        putAll(prioritiesByCountry, version, redisService.activeDataset());
+    }
+
+    // Dropped if another dataset was activated since the priorities were read, returns false then
+    private boolean putAll(Map<String, Map<AdTypeEnum, List<String>>> prioritiesByCountry, long version, long dataset) {
+        // Encoded before taking the monitor, only the swap is guarded
+        var encoded = new HashMap<String, CompactPriorities>();
+        prioritiesByCountry.forEach((countryCode, countryPriorities) ->
+                encoded.put(countryCode, countryPriorities == null
+                        ? null
+                        : CompactPriorities.encode(countryPriorities, version, networkRegistry))
+        );
+
+        synchronized (this) {
+            if (dataset != redisService.activeDataset()) {
+                return false;
+            }
+            var updated = new HashMap<>(priorities);
+            encoded.forEach((countryCode, countryPriorities) -> {
+                if (countryPriorities == null) {
+                    updated.remove(countryCode);
+                } else {
+                    updated.put(countryCode, countryPriorities);
+                }
+            });
+            priorities = Map.copyOf(updated);
+            generation = Math.max(generation, version);
+            updatedDuringLoad.addAll(encoded.keySet());
+        }
+        invalidate(prioritiesByCountry.keySet());
+        snapshotFile.writeAsync(this::contents);
+        return true;
+    }
+
+    private static Map<String, Map<AdTypeEnum, List<String>>> changes(String countryCode, Map<AdTypeEnum, List<String>> countryPriorities) {
+        var changes = new HashMap<String, Map<AdTypeEnum, List<String>>>();
+        changes.put(countryCode, countryPriorities);
+        return changes;
+    }
+
+    private static Set<String> changedCountries(Map<String, CompactPriorities> previous, Map<String, CompactPriorities> current) {
+        var changed = new HashSet<String>();
+        previous.forEach((countryCode, countryPriorities) -> {
+            var updated = current.get(countryCode);
+            if (updated == null || updated.version() != countryPriorities.version()) {
+                changed.add(countryCode);
+            }
+        });
+        current.keySet().stream()
+                .filter(countryCode -> !previous.containsKey(countryCode))
+                .forEach(changed::add);
+        return changed;
+    }
+
+    // Must run after the snapshot is replaced, otherwise a concurrent miss could cache the old priorities again
+    private void invalidate(Set<String> countryCodes) {
+        if (countryCodes.isEmpty()) {
+            return;
+        }
+
+        // Keyed by (country, platform, canonical OS version)
+        Predicate<Object> affected = key -> key instanceof CompositeCacheKey compositeKey
+                && countryCodes.contains(compositeKey.getKeyElements()[0]);
+        countryPrioritiesCache.invalidateIf(affected).subscribe().with(
+                ignored -> { },
+                failure -> LOG.warnf(failure, "Failed to invalidate %s for %s", countryPrioritiesCache.getName(), countryCodes)
+        );
+        // The filtered priorities are dropped first, so rebuilt responses don't pick them up again
+        responseCache.invalidate(countryCodes);
+    }
+}
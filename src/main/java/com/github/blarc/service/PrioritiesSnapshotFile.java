@@ -0,0 +1,282 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.AdTypeEnum;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import io.vertx.core.Vertx;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * Local copy of the whole priorities snapshot, so a starting instance has real priorities before Redis answers.
+ * <p>
+ * The file starts with {@code MAGIC, FORMAT_VERSION} and a dictionary of the UTF-8 network names.
+ * Every country follows as {@code country code, version, ad type count} and {@code ad type ordinal, network count}
+ * plus the dictionary indexes of every ad type. A CRC32 of everything before it ends the file.
+ * <p>
+ * All instances may share the directory. Every file is named after the configured file and the generation of the
+ * snapshot, {@code priorities.snapshot.42}, so a lagging instance never replaces a newer snapshot.
+ * The newest readable generation is restored, a torn or corrupted file fails its checksum and the one before it is used.
+ * Files are written next to the target and renamed, on mounts where a rename is not atomic the checksum still applies.
+ */
+@ApplicationScoped
+public class PrioritiesSnapshotFile {
+
+    private static final Logger LOG = Logger.getLogger(PrioritiesSnapshotFile.class);
+
+    private static final int MAGIC = 0xAD5E_ED01;
+    private static final byte FORMAT_VERSION = 1;
+    private static final AdTypeEnum[] AD_TYPES = AdTypeEnum.values();
+
+    @Inject
+    NetworkRegistry networkRegistry;
+
+    @Inject
+    Vertx vertx;
+
+    // Empty disables the file
+    @ConfigProperty(name = "priorities.snapshot.file")
+    Optional<Path> file;
+
+    // Updates arriving within the delay are written together
+    @ConfigProperty(name = "priorities.snapshot.file-write-delay", defaultValue = "1s")
+    Duration writeDelay;
+
+    // Files of older generations kept besides the newest one, in case the newest one can't be read
+    private static final int RETAINED_GENERATIONS = 1;
+
+    private final AtomicBoolean writeScheduled = new AtomicBoolean();
+
+    // Priorities as of the given generation, a snapshot with a higher one never contains older priorities
+    public record Contents(long generation, Map<String, CompactPriorities> priorities) {
+
+        public static final Contents EMPTY = new Contents(0, Map.of());
+    }
+
+    // Empty if the file is disabled, missing or unreadable.
+    // Read into memory, mappings are not supported by every file system the directory may be mounted from.
+    public Contents read() {
+        if (file.isEmpty()) {
+            return Contents.EMPTY;
+        }
+
+        try {
+            for (var generation : generations().descendingMap().entrySet()) {
+                try {
+                    var priorities = decode(ByteBuffer.wrap(Files.readAllBytes(generation.getValue())));
+                    LOG.infof("Restored priorities of %d countries from %s", priorities.size(), generation.getValue());
+                    return new Contents(generation.getKey(), priorities);
+                } catch (Exception e) {
+                    LOG.warnf(e, "Ignoring unreadable priorities snapshot file %s", generation.getValue());
+                }
+            }
+        } catch (IOException e) {
+            LOG.warnf(e, "Failed to list priorities snapshot files next to %s", file.get());
+        }
+        return Contents.EMPTY;
+    }
+
+    // The snapshot is taken when the write runs, so a burst of updates results in a single write of the latest state
+    public void writeAsync(Supplier<Contents> snapshot) {
+        if (file.isEmpty() || !writeScheduled.compareAndSet(false, true)) {
+            return;
+        }
+
+        vertx.setTimer(writeDelay.toMillis(), id -> Infrastructure.getDefaultWorkerPool().execute(() -> {
+            // Updates from now on schedule another write
+            writeScheduled.set(false);
+            write(snapshot);
+        }));
+    }
+
+    // Skipped if another instance already wrote a newer generation. Synchronized, so writes of this instance don't overlap.
+    synchronized void write(Supplier<Contents> snapshot) {
+        var path = file.orElseThrow();
+        try {
+            var contents = snapshot.get();
+            var directory = path.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            var generations = generations();
+            if (!generations.isEmpty() && generations.lastKey() > contents.generation()) {
+                LOG.debugf("Skipping priorities snapshot %d, %s is newer", contents.generation(), generations.lastEntry().getValue());
+                return;
+            }
+
+            byte[] content = encode(contents.priorities());
+            var target = directory.resolve(path.getFileName() + "." + contents.generation());
+            var temporary = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temporary, content);
+                move(temporary, target);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            deleteOlderThan(generations, contents.generation());
+        } catch (IOException e) {
+            LOG.warnf(e, "Failed to write priorities snapshot file %s", path);
+        }
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Keeps the written generation and the newest ones before it
+    private void deleteOlderThan(NavigableMap<Long, Path> generations, long written) {
+        var older = generations.headMap(written, false).descendingMap().values().stream()
+                .skip(RETAINED_GENERATIONS)
+                .toList();
+        for (var olderFile : older) {
+            try {
+                Files.deleteIfExists(olderFile);
+            } catch (IOException e) {
+                LOG.debugf(e, "Failed to delete priorities snapshot file %s", olderFile);
+            }
+        }
+    }
+
+    // Snapshot files by generation, empty if the directory doesn't exist yet
+    private NavigableMap<Long, Path> generations() throws IOException {
+        var path = file.orElseThrow().toAbsolutePath();
+        var prefix = path.getFileName() + ".";
+        var generations = new TreeMap<Long, Path>();
+        if (!Files.isDirectory(path.getParent())) {
+            return generations;
+        }
+        try (var files = Files.newDirectoryStream(path.getParent(), prefix + "*")) {
+            for (var candidate : files) {
+                String suffix = candidate.getFileName().toString().substring(prefix.length());
+                if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+                    generations.put(Long.parseLong(suffix), candidate);
+                }
+            }
+        }
+        return generations;
+    }
+
+    private byte[] encode(Map<String, CompactPriorities> priorities) throws IOException {
+        // Node-local network IDs are replaced by indexes into the dictionary of the file
+        var dictionary = new LinkedHashMap<Short, Integer>();
+        priorities.values().forEach(countryPriorities -> {
+            for (AdTypeEnum adType : AD_TYPES) {
+                var networkIds = countryPriorities.networkIds(adType);
+                if (networkIds != null) {
+                    for (short networkId : networkIds) {
+                        dictionary.putIfAbsent(networkId, dictionary.size());
+                    }
+                }
+            }
+        });
+
+        var bytes = new ByteArrayOutputStream();
+        var out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(FORMAT_VERSION);
+        out.writeInt(dictionary.size());
+        for (short networkId : dictionary.keySet()) {
+            byte[] name = networkRegistry.name(networkId).getBytes(StandardCharsets.UTF_8);
+            out.writeShort(name.length);
+            out.write(name);
+        }
+
+        out.writeInt(priorities.size());
+        for (var entry : priorities.entrySet()) {
+            var countryPriorities = entry.getValue();
+            out.write(entry.getKey().getBytes(StandardCharsets.US_ASCII));
+            out.writeLong(countryPriorities.version());
+
+            int adTypes = 0;
+            for (AdTypeEnum adType : AD_TYPES) {
+                if (countryPriorities.networkIds(adType) != null) {
+                    adTypes++;
+                }
+            }
+            out.writeByte(adTypes);
+            for (AdTypeEnum adType : AD_TYPES) {
+                var networkIds = countryPriorities.networkIds(adType);
+                if (networkIds != null) {
+                    out.writeByte(adType.ordinal());
+                    out.writeShort(networkIds.length);
+                    for (short networkId : networkIds) {
+                        out.writeShort(dictionary.get(networkId));
+                    }
+                }
+            }
+        }
+
+        var crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    private Map<String, CompactPriorities> decode(ByteBuffer buffer) {
+        var crc = new CRC32();
+        crc.update(buffer.slice(0, buffer.limit() - Integer.BYTES));
+        if ((int) crc.getValue() != buffer.getInt(buffer.limit() - Integer.BYTES)) {
+            throw new IllegalStateException("Checksum mismatch");
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new IllegalStateException("Not a priorities snapshot file");
+        }
+        byte formatVersion = buffer.get();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IllegalStateException("Unsupported snapshot format version " + formatVersion);
+        }
+
+        var networkIds = new short[buffer.getInt()];
+        for (int i = 0; i < networkIds.length; i++) {
+            var name = new byte[Short.toUnsignedInt(buffer.getShort())];
+            buffer.get(name);
+            networkIds[i] = (short) networkRegistry.intern(new String(name, StandardCharsets.UTF_8));
+        }
+
+        int countries = buffer.getInt();
+        var priorities = new HashMap<String, CompactPriorities>(countries * 2);
+        var countryCode = new byte[2];
+        for (int i = 0; i < countries; i++) {
+            buffer.get(countryCode);
+            long version = buffer.getLong();
+            var countryNetworkIds = new short[AD_TYPES.length][];
+            int adTypes = buffer.get();
+            for (int j = 0; j < adTypes; j++) {
+                int ordinal = buffer.get();
+                var ids = new short[Short.toUnsignedInt(buffer.getShort())];
+                for (int k = 0; k < ids.length; k++) {
+                    ids[k] = networkIds[Short.toUnsignedInt(buffer.getShort())];
+                }
+                // Ad types unknown to this version were added by a newer one, they are skipped
+                if (ordinal < AD_TYPES.length) {
+                    countryNetworkIds[ordinal] = ids;
+                }
+            }
+            priorities.put(new String(countryCode, StandardCharsets.US_ASCII), new CompactPriorities(countryNetworkIds, version));
+        }
+        return Map.copyOf(priorities);
+    }
+}
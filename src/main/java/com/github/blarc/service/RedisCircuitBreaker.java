@@ -0,0 +1,104 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.CircuitStateEnum;
+import io.smallrye.mutiny.Uni;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Guards Redis reads with a per-command latency budget and stops sending them while Redis is unhealthy.
+ * Callers keep serving their last known good data when a guarded call fails.
+ */
+@ApplicationScoped
+public class RedisCircuitBreaker {
+
+    private static final Logger LOG = Logger.getLogger(RedisCircuitBreaker.class);
+
+    @ConfigProperty(name = "priorities.redis.latency-budget", defaultValue = "250ms")
+    Duration latencyBudget;
+
+    // Consecutive failed or timed out calls that open the circuit
+    @ConfigProperty(name = "priorities.redis.circuit-breaker.failure-threshold", defaultValue = "5")
+    int failureThreshold;
+
+    // How long the circuit stays open before a trial call is let through
+    @ConfigProperty(name = "priorities.redis.circuit-breaker.open-duration", defaultValue = "10s")
+    Duration openDuration;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean trialInFlight = new AtomicBoolean();
+    private volatile long openedAt;
+    private volatile boolean open;
+
+    // Checked on every subscription, so a Uni that is assembled once and subscribed later isn't let through by a stale check
+    public <T> Uni<T> call(Supplier<Uni<T>> command) {
+        return Uni.createFrom().deferred(() -> {
+            var state = state();
+            // Only one call probes Redis, the others keep failing fast until it completes
+            boolean trial = state == CircuitStateEnum.HALF_OPEN && trialInFlight.compareAndSet(false, true);
+            if (state == CircuitStateEnum.OPEN || (state == CircuitStateEnum.HALF_OPEN && !trial)) {
+                return Uni.createFrom().<T>failure(new IllegalStateException("Redis circuit breaker is open"));
+            }
+            return Uni.createFrom().<T>deferred(command::get)
+                    .ifNoItem().after(latencyBudget).fail()
+                    .onTermination().invoke((item, failure, cancelled) -> {
+                        if (cancelled) {
+                            // E.g. a combined Uni whose other call failed, the outcome is unknown so the next call probes
+                            if (trial) {
+                                trialInFlight.set(false);
+                            }
+                        } else if (failure == null) {
+                            recordSuccess();
+                        } else {
+                            recordFailure();
+                        }
+                    });
+        });
+    }
+
+    // For worker threads, the latency budget still applies
+    public <T> T await(Supplier<Uni<T>> command) {
+        return call(command).await().atMost(blockingTimeout());
+    }
+
+    // Commands fail after the latency budget already, the deadline only guards blocked callers against a lost completion
+    public Duration blockingTimeout() {
+        return latencyBudget.multipliedBy(2);
+    }
+
+    public CircuitStateEnum state() {
+        if (!open) {
+            return CircuitStateEnum.CLOSED;
+        }
+        return System.nanoTime() - openedAt < openDuration.toNanos() ? CircuitStateEnum.OPEN : CircuitStateEnum.HALF_OPEN;
+    }
+
+    public int consecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    private void recordSuccess() {
+        consecutiveFailures.set(0);
+        trialInFlight.set(false);
+        if (open) {
+            open = false;
+            LOG.info("Redis circuit breaker closed");
+        }
+    }
+
+    private void recordFailure() {
+        int failures = consecutiveFailures.incrementAndGet();
+        boolean failedTrial = trialInFlight.getAndSet(false);
+        if (failedTrial || (!open && failures >= failureThreshold)) {
+            openedAt = System.nanoTime();
+            open = true;
+            LOG.warnf("Redis circuit breaker opened after %d consecutive failures", failures);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.github.blarc.service;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Names of the Redis keys and channels of one app.
+ * <p>
+ * Every key contains the namespace, so several apps can share a Redis deployment. With shards, the per-country keys
+ * and the set, version and content hash indexes are split into shards whose keys share the hash tag {@code {namespace:shard}}.
+ * The keys of a shard land in one cluster slot, so a shard can be written with MULTI and read with MGET,
+ * while different shards and different apps spread over the cluster.
+ * Without shards the keys have no hash tag and keep the names used before sharding existed.
+ * <p>
+ * The per-country keys and indexes belong to a dataset, see {@link #forDataset(long)}. Staged datasets get their own keys
+ * in the same shards, dataset 0 is the one that was written in place before datasets could be staged and keeps its names.
+ */
+@ApplicationScoped
+public class RedisKeySchema {
+
+    @ConfigProperty(name = "priorities.redis.namespace", defaultValue = "priorities")
+    String namespace;
+
+    // 0 keeps the unsharded layout, which only works on a single Redis node or with a single cluster slot
+    @ConfigProperty(name = "priorities.redis.shards", defaultValue = "0")
+    int shards;
+
+    private long dataset;
+
+    public RedisKeySchema() {
+    }
+
+    RedisKeySchema(String namespace, int shards) {
+        this(namespace, shards, 0);
+    }
+
+    private RedisKeySchema(String namespace, int shards, long dataset) {
+        this.namespace = namespace;
+        this.shards = shards;
+        this.dataset = dataset;
+    }
+
+    // Keys of the given dataset, the keys that are not per dataset stay the same
+    public RedisKeySchema forDataset(long dataset) {
+        return new RedisKeySchema(namespace, shards, dataset);
+    }
+
+    public long dataset() {
+        return dataset;
+    }
+
+    public int shardCount() {
+        return Math.max(shards, 1);
+    }
+
+    // String.hashCode is specified, so every instance assigns a country to the same shard
+    public int shard(String countryCode) {
+        return Math.floorMod(countryCode.hashCode(), shardCount());
+    }
+
+    // Country codes grouped by shard, the list of a shard is empty if it has no country
+    public List<List<String>> groupByShard(Collection<String> countryCodes) {
+        var groups = new ArrayList<List<String>>(shardCount());
+        for (int shard = 0; shard < shardCount(); shard++) {
+            groups.add(new ArrayList<>());
+        }
+        for (String countryCode : countryCodes) {
+            groups.get(shard(countryCode)).add(countryCode);
+        }
+        return groups;
+    }
+
+    public String countryKey(String countryCode) {
+        return shardPrefix(shard(countryCode)) + ":countries:" + countryCode;
+    }
+
+    public String countriesSetKey(int shard) {
+        return shardPrefix(shard) + ":all_countries";
+    }
+
+    // Version each country was last written with
+    public String countryVersionsKey(int shard) {
+        return shardPrefix(shard) + ":country_versions";
+    }
+
+    // Hash of every country and ad type as last written, fields are "<country>:<ad type>"
+    public String contentHashesKey(int shard) {
+        return shardPrefix(shard) + ":content_hashes";
+    }
+
+    // Incremented on every write, a single key so versions are ordered across shards
+    public String versionKey() {
+        return namespace + ":version";
+    }
+
+    public String changesChannel() {
+        return namespace + ":changes";
+    }
+
+    public String filterRulesKey() {
+        return namespace + ":filter_rules";
+    }
+
+    public String filterRulesChangesChannel() {
+        return namespace + ":filter_rules:changes";
+    }
+
+    // Dataset that is served, absent until a staged dataset is activated for the first time
+    public String activeDatasetKey() {
+        return datasetPointerPrefix() + ":active_dataset";
+    }
+
+    // Dataset that was active before the current one, the target of a rollback
+    public String previousDatasetKey() {
+        return datasetPointerPrefix() + ":previous_dataset";
+    }
+
+    // Copy of the active dataset pointer under the hash tag of a shard, so a transaction on the shard can WATCH it.
+    // Without shards it is the pointer itself.
+    public String shardActiveDatasetKey(int shard) {
+        return shards == 0 ? activeDatasetKey() : "{" + namespace + ":" + shard + "}:active_dataset";
+    }
+
+    public boolean isSharded() {
+        return shards > 0;
+    }
+
+    // Set of the staged datasets that are kept in Redis
+    public String datasetsKey() {
+        return namespace + ":datasets";
+    }
+
+    public String datasetsChannel() {
+        return namespace + ":datasets:changes";
+    }
+
+    // Both pointers are updated in one MULTI, with shards they share a hash tag so they land in one cluster slot
+    private String datasetPointerPrefix() {
+        return shards == 0 ? namespace : "{" + namespace + ":datasets}";
+    }
+
+    private String shardPrefix(int shard) {
+        String prefix = shards == 0 ? namespace : "{" + namespace + ":" + shard + "}";
+        return dataset == 0 ? prefix : prefix + ":datasets:" + dataset;
+    }
+}
@@ -2,66 +2,532 @@ package com.github.blarc.service;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.github.blarc.model.AdTypeEnum;
+import com.github.blarc.model.FilterRule;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
 import io.quarkus.redis.datasource.RedisDataSource;
+import io.quarkus.redis.datasource.ScanArgs;
+import io.quarkus.redis.datasource.hash.ReactiveHashCommands;
+import io.quarkus.redis.datasource.pubsub.PubSubCommands;
+import io.quarkus.redis.datasource.set.ReactiveSetCommands;
 import io.quarkus.redis.datasource.set.SetCommands;
+import io.quarkus.redis.datasource.transactions.OptimisticLockingTransactionResult;
+import io.quarkus.redis.datasource.transactions.TransactionalRedisDataSource;
+import io.quarkus.redis.datasource.value.ReactiveValueCommands;
 import io.quarkus.redis.datasource.value.ValueCommands;
+import io.smallrye.mutiny.Uni;
 import jakarta.enterprise.context.ApplicationScoped;
+import org.jboss.logging.Logger;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.OptionalLong;
 import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 
+// Reads go through the circuit breaker and its latency budget, writes fail with the client timeout.
+// Every command is timed by name, a MULTI/EXEC block counts as a single MULTI.
+// Country reads go to the active dataset of this instance, see useDataset. Writes go to the dataset the pointer names.
 @ApplicationScoped
 public class RedisService {
 
-    private static final String COUNTRY_KEY_PREFIX = "priorities:countries";
-    private static final String COUNTRIES_SET_KEY = "priorities:all_countries";
+    private static final Logger LOG = Logger.getLogger(RedisService.class);
 
-    private final ValueCommands<String, Map<AdTypeEnum, List<String>>> valueCommands;
+    private static final String CHANGES_SEPARATOR = ",";
+    private static final String DATASET_STAGED = "staged:";
+    private static final String DATASET_ACTIVATED = "activated:";
+    private static final int SCAN_BATCH_SIZE = 100;
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+    private static final AdTypeEnum[] AD_TYPES = AdTypeEnum.values();
+
+    private final RedisDataSource ds;
+    private final RedisKeySchema keys;
+    private volatile RedisKeySchema activeDataset;
+    private final RedisCircuitBreaker circuitBreaker;
+    private final PrioritiesMetrics metrics;
+    private final PrioritiesCodec prioritiesCodec;
+    // Country priorities are stored as raw bytes and encoded by PrioritiesCodec
+    private final ReactiveValueCommands<String, byte[]> reactiveValueCommands;
+    private final ValueCommands<String, List<FilterRule>> filterRulesCommands;
+    private final ReactiveValueCommands<String, List<FilterRule>> reactiveFilterRulesCommands;
+    // Versions and dataset pointers
+    private final ValueCommands<String, Long> versionCommands;
+    private final ReactiveValueCommands<String, Long> reactiveVersionCommands;
+    // Country versions and content hashes
+    private final ReactiveHashCommands<String, String, Long> reactiveLongHashCommands;
     private final SetCommands<String, String> setCommands;
+    private final ReactiveSetCommands<String, String> reactiveSetCommands;
+    private final PubSubCommands<String> pubSubCommands;
 
-    public RedisService(RedisDataSource ds) {
-        valueCommands = ds.value(new TypeReference<>(){});
+    public RedisService(
+            RedisDataSource ds,
+            ReactiveRedisDataSource reactiveDs,
+            RedisCircuitBreaker circuitBreaker,
+            PrioritiesMetrics metrics,
+            PrioritiesCodec prioritiesCodec,
+            RedisKeySchema keys
+    ) {
+        this.ds = ds;
+        this.keys = keys;
+        this.activeDataset = keys.forDataset(0);
+        this.circuitBreaker = circuitBreaker;
+        this.metrics = metrics;
+        this.prioritiesCodec = prioritiesCodec;
+        reactiveValueCommands = reactiveDs.value(byte[].class);
+        filterRulesCommands = ds.value(new TypeReference<>(){});
+        reactiveFilterRulesCommands = reactiveDs.value(new TypeReference<>(){});
+        versionCommands = ds.value(Long.class);
+        reactiveVersionCommands = reactiveDs.value(Long.class);
+        reactiveLongHashCommands = reactiveDs.hash(Long.class);
         setCommands = ds.set(String.class);
+        reactiveSetCommands = reactiveDs.set(String.class);
+        pubSubCommands = ds.pubsub(String.class);
+    }
+
+    public long set(String countryCode, Map<AdTypeEnum, List<String>> countryPriorities) {
+        long version = metrics.timeRedis("INCR", () -> versionCommands.incr(keys.versionKey()));
+        writeAll(Map.of(countryCode, countryPriorities), version, this::writeToActiveDataset);
+
+        // Notify all instances that the country changed
+        publish(keys.changesChannel(), countryCode);
+        return version;
+    }
+
+    // Writes the countries of every shard in a single MULTI/EXEC, so the number of round trips depends on the number
+    // of shards instead of the number of countries and readers never see a partially applied shard.
+    // All keys of a transaction share the hash tag of the shard, which Redis Cluster requires.
+    public long setAll(Map<String, Map<AdTypeEnum, List<String>>> prioritiesByCountry) {
+        long version = metrics.timeRedis("INCR", () -> versionCommands.incr(keys.versionKey()));
+        if (prioritiesByCountry.isEmpty()) {
+            return version;
+        }
+
+        writeAll(prioritiesByCountry, version, this::writeToActiveDataset);
+        // Published once all shards are written, a single message for the whole update
+        publish(keys.changesChannel(), String.join(CHANGES_SEPARATOR, prioritiesByCountry.keySet()));
+        return version;
+    }
+
+    // Writes a complete dataset next to the active one, its id is the version of its countries.
+    // Instances are notified so they can load it before it is activated.
+    public long stageDataset(Map<String, Map<AdTypeEnum, List<String>>> prioritiesByCountry) {
+        long version = metrics.timeRedis("INCR", () -> versionCommands.incr(keys.versionKey()));
+        var staged = keys.forDataset(version);
+        writeAll(prioritiesByCountry, version, (shard, writes) ->
+                metrics.timeRedis("MULTI", () -> ds.withTransaction(tx -> writes.accept(staged, tx)))
+        );
+        metrics.timeRedis("SADD", () -> setCommands.sadd(keys.datasetsKey(), Long.toString(version)));
+        publish(keys.datasetsChannel(), DATASET_STAGED + version);
+        return version;
     }
 
-    public void set(String countryCode, Map<AdTypeEnum, List<String>> countryPriorities) {
-        String key = buildCountryKey(countryCode);
-        valueCommands.set(key, countryPriorities);
+    private void writeAll(Map<String, Map<AdTypeEnum, List<String>>> prioritiesByCountry, long version, ShardTransaction transaction) {
+        // Countries land in the same shard in every dataset
+        var shards = keys.groupByShard(prioritiesByCountry.keySet());
+        for (int shard = 0; shard < shards.size(); shard++) {
+            var shardCountryCodes = shards.get(shard);
+            if (shardCountryCodes.isEmpty()) {
+                continue;
+            }
 
-        // Add country to the set of all countries
-        setCommands.sadd(COUNTRIES_SET_KEY, countryCode);
+            Map<String, byte[]> valuesByCountry = new HashMap<>();
+            Map<String, Long> versionsByCountry = new HashMap<>();
+            Map<String, Long> contentHashes = new HashMap<>();
+            for (String countryCode : shardCountryCodes) {
+                var countryPriorities = prioritiesByCountry.get(countryCode);
+                valuesByCountry.put(countryCode, prioritiesCodec.encode(countryPriorities));
+                versionsByCountry.put(countryCode, version);
+                contentHashes.putAll(contentHashFields(countryCode, countryPriorities));
+            }
+
+            int currentShard = shard;
+            transaction.run(currentShard, (dataset, tx) -> {
+                Map<String, byte[]> valuesByKey = new HashMap<>();
+                valuesByCountry.forEach((countryCode, value) -> valuesByKey.put(dataset.countryKey(countryCode), value));
+                tx.value(byte[].class).mset(valuesByKey);
+                tx.hash(Long.class).hset(dataset.countryVersionsKey(currentShard), versionsByCountry);
+                tx.hash(Long.class).hset(dataset.contentHashesKey(currentShard), contentHashes);
+                tx.set(String.class).sadd(dataset.countriesSetKey(currentShard), shardCountryCodes.toArray(String[]::new));
+            });
+        }
     }
 
     public Map<AdTypeEnum, List<String>> get(String countryCode) {
-        String key = buildCountryKey(countryCode);
-        return valueCommands.get(key);
+        return getAsync(countryCode).await().atMost(circuitBreaker.blockingTimeout());
     }
 
-    public Map<String, Map<AdTypeEnum, List<String>>> getAll() {
-        Map<String, Map<AdTypeEnum, List<String>>> allPriorities = new HashMap<>();
+    // Non-blocking variant that can be used from the event loop, e.g. from pub/sub handlers
+    public Uni<Map<AdTypeEnum, List<String>>> getAsync(String countryCode) {
+        String key = activeDataset.countryKey(countryCode);
+        return circuitBreaker.call(() -> metrics.timeRedisAsync("GET", () -> reactiveValueCommands.get(key)))
+                .map(this::decode);
+    }
+
+    // 0 if the country was never written
+    public long getVersion(String countryCode) {
+        return getVersionAsync(countryCode).await().atMost(circuitBreaker.blockingTimeout());
+    }
+
+    public Uni<Long> getVersionAsync(String countryCode) {
+        String key = activeDataset.countryVersionsKey(activeDataset.shard(countryCode));
+        return circuitBreaker.call(() -> metrics.timeRedisAsync("HGET", () -> reactiveLongHashCommands.hget(key, countryCode)))
+                .map(version -> version == null ? 0 : version);
+    }
 
-        // Get all country codes from the set
-        Set<String> countryCodes = setCommands.smembers(COUNTRIES_SET_KEY);
+    public Map<String, Long> getVersions() {
+        return getVersions(activeDataset);
+    }
+
+    public Map<String, Long> getVersions(long dataset) {
+        return getVersions(keys.forDataset(dataset));
+    }
 
-        // Fetch priorities for each country
+    private Map<String, Long> getVersions(RedisKeySchema dataset) {
+        Map<String, Long> versions = new HashMap<>();
+        for (int shard = 0; shard < dataset.shardCount(); shard++) {
+            String key = dataset.countryVersionsKey(shard);
+            versions.putAll(circuitBreaker.await(() -> metrics.timeRedisAsync("HGETALL", () ->
+                    reactiveLongHashCommands.hgetall(key)
+            )));
+        }
+        return versions;
+    }
+
+    // Content hashes indexed by ad type ordinal, ContentHash.NONE for countries and ad types that were never hashed
+    public Map<String, long[]> getContentHashes(Collection<String> countryCodes) {
+        if (countryCodes.isEmpty()) {
+            return Map.of();
+        }
+
+        // One HMGET per shard, the hashes of a shard are stored under a single key
+        var dataset = activeDataset;
+        Map<String, Long> storedHashes = new HashMap<>();
+        var shards = dataset.groupByShard(countryCodes);
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (shards.get(shard).isEmpty()) {
+                continue;
+            }
+            String key = dataset.contentHashesKey(shard);
+            var fields = shards.get(shard).stream()
+                    .flatMap(countryCode -> Arrays.stream(AD_TYPES).map(adType -> contentHashField(countryCode, adType)))
+                    .toArray(String[]::new);
+            storedHashes.putAll(circuitBreaker.await(() -> metrics.timeRedisAsync("HMGET", () ->
+                    reactiveLongHashCommands.hmget(key, fields)
+            )));
+        }
+
+        Map<String, long[]> hashesByCountry = new HashMap<>();
         for (String countryCode : countryCodes) {
-            Map<AdTypeEnum, List<String>> priorities = get(countryCode);
-            if (priorities != null) {
-                allPriorities.put(countryCode, priorities);
+            var hashes = new long[AD_TYPES.length];
+            for (AdTypeEnum adType : AD_TYPES) {
+                Long hash = storedHashes.get(contentHashField(countryCode, adType));
+                hashes[adType.ordinal()] = hash == null ? ContentHash.NONE : hash;
             }
+            hashesByCountry.put(countryCode, hashes);
+        }
+        return hashesByCountry;
+    }
+
+    public Map<String, Map<AdTypeEnum, List<String>>> getAll() {
+        Map<String, Map<AdTypeEnum, List<String>>> allPriorities = new HashMap<>();
+        forEach(allPriorities::put);
+        return allPriorities;
+    }
+
+    public Map<String, Map<AdTypeEnum, List<String>>> getAll(long dataset) {
+        Map<String, Map<AdTypeEnum, List<String>>> allPriorities = new HashMap<>();
+        var datasetKeys = keys.forDataset(dataset);
+        for (int shard = 0; shard < datasetKeys.shardCount(); shard++) {
+            forEach(datasetKeys, shard, allPriorities::put);
         }
         return allPriorities;
     }
 
+    // Scans the set of countries of every shard in batches and fetches each batch with one MGET, so memory stays bounded
+    // by the batch. The keys of a batch belong to one shard, so the MGET never spans cluster slots.
+    public void forEach(BiConsumer<String, Map<AdTypeEnum, List<String>>> consumer) {
+        var dataset = activeDataset;
+        for (int shard = 0; shard < dataset.shardCount(); shard++) {
+            forEach(dataset, shard, consumer);
+        }
+    }
+
+    private void forEach(RedisKeySchema dataset, int shard, BiConsumer<String, Map<AdTypeEnum, List<String>>> consumer) {
+        var cursor = reactiveSetCommands.sscan(dataset.countriesSetKey(shard), new ScanArgs().count(SCAN_BATCH_SIZE));
+        // SSCAN may return a member more than once
+        Set<String> seenCountryCodes = new HashSet<>();
+
+        while (cursor.hasNext()) {
+            // The latency budget applies to every SSCAN and MGET, not to the whole scan
+            var countryCodes = circuitBreaker.await(() -> metrics.timeRedisAsync("SSCAN", cursor::next)).stream()
+                    .filter(seenCountryCodes::add)
+                    .toList();
+            if (countryCodes.isEmpty()) {
+                continue;
+            }
+
+            var countryKeys = countryCodes.stream()
+                    .map(dataset::countryKey)
+                    .toArray(String[]::new);
+            var prioritiesByKey = circuitBreaker.await(() -> metrics.timeRedisAsync("MGET", () ->
+                    reactiveValueCommands.mget(countryKeys)
+            ));
+
+            for (int i = 0; i < countryKeys.length; i++) {
+                var priorities = decode(prioritiesByKey.get(countryKeys[i]));
+                if (priorities != null) {
+                    consumer.accept(countryCodes.get(i), priorities);
+                }
+            }
+        }
+    }
+
     public void delete(String countryCode) {
-        String key = buildCountryKey(countryCode);
-        valueCommands.getdel(key);
-        setCommands.srem(COUNTRIES_SET_KEY, countryCode);
+        var contentHashFields = Arrays.stream(AD_TYPES)
+                .map(adType -> contentHashField(countryCode, adType))
+                .toArray(String[]::new);
+        int shard = keys.shard(countryCode);
+        writeToActiveDataset(shard, (dataset, tx) -> {
+            tx.key().del(dataset.countryKey(countryCode));
+            tx.hash(Long.class).hdel(dataset.countryVersionsKey(shard), countryCode);
+            tx.hash(Long.class).hdel(dataset.contentHashesKey(shard), contentHashFields);
+            tx.set(String.class).srem(dataset.countriesSetKey(shard), countryCode);
+        });
+        publish(keys.changesChannel(), countryCode);
+    }
+
+    // Writes go to the dataset the pointer of the shard names, also while this instance still serves the one it replaced.
+    // The pointer is watched, an activation that moves it discards the transaction before anything is written,
+    // and the writes are retried against the activated dataset.
+    private void writeToActiveDataset(int shard, BiConsumer<RedisKeySchema, TransactionalRedisDataSource> writes) {
+        String pointerKey = keys.shardActiveDatasetKey(shard);
+        for (int attempt = 0; attempt < MAX_WRITE_ATTEMPTS; attempt++) {
+            var result = metrics.timeRedis("MULTI", () -> ds.withTransaction(
+                    redis -> datasetKeys(redis.value(Long.class).get(pointerKey)),
+                    writes,
+                    pointerKey
+            ));
+            if (!result.discarded()) {
+                return;
+            }
+        }
+        throw new IllegalStateException("Shard " + shard + " not written, the active dataset changed during "
+                + MAX_WRITE_ATTEMPTS + " attempts");
+    }
+
+    private RedisKeySchema datasetKeys(Long dataset) {
+        long id = dataset == null ? 0 : dataset;
+        var current = activeDataset;
+        return id == current.dataset() ? current : keys.forDataset(id);
+    }
+
+    // Unlike getActiveDataset, not guarded by the circuit breaker, writes fail with the client timeout
+    private long readActiveDatasetPointer() {
+        Long dataset = metrics.timeRedis("GET", () -> versionCommands.get(keys.activeDatasetKey()));
+        return dataset == null ? 0 : dataset;
+    }
+
+    public PubSubCommands.RedisSubscriber subscribeToChanges(Consumer<String> onChange) {
+        // Bulk writes publish all changed countries in a single message
+        return pubSubCommands.subscribe(keys.changesChannel(), message -> {
+            for (String countryCode : message.split(CHANGES_SEPARATOR)) {
+                onChange.accept(countryCode);
+            }
+        });
+    }
+
+    // Dataset this instance reads and writes the countries of
+    public long activeDataset() {
+        return activeDataset.dataset();
+    }
+
+    public void useDataset(long dataset) {
+        if (dataset != activeDataset.dataset()) {
+            activeDataset = keys.forDataset(dataset);
+        }
+    }
+
+    // Dataset every instance should serve, 0 until a staged dataset is activated
+    public long getActiveDataset() {
+        Long dataset = circuitBreaker.await(() -> metrics.timeRedisAsync("GET", () ->
+                reactiveVersionCommands.get(keys.activeDatasetKey())
+        ));
+        return dataset == null ? 0 : dataset;
+    }
+
+    // Last version handed out to a write or an activation. Priorities read after it are at least as new as it.
+    public long getVersionCounter() {
+        Long version = circuitBreaker.await(() -> metrics.timeRedisAsync("GET", () ->
+                reactiveVersionCommands.get(keys.versionKey())
+        ));
+        return version == null ? 0 : version;
+    }
+
+    public OptionalLong getPreviousDataset() {
+        Long dataset = metrics.timeRedis("GET", () -> versionCommands.get(keys.previousDatasetKey()));
+        return dataset == null ? OptionalLong.empty() : OptionalLong.of(dataset);
+    }
+
+    // Staged datasets kept in Redis, oldest first
+    public List<Long> getDatasets() {
+        return metrics.timeRedis("SMEMBERS", () -> setCommands.smembers(keys.datasetsKey())).stream()
+                .map(Long::parseLong)
+                .sorted(Comparator.naturalOrder())
+                .toList();
+    }
+
+    public boolean datasetExists(long dataset) {
+        return dataset == 0 || metrics.timeRedis("SISMEMBER", () ->
+                setCommands.sismember(keys.datasetsKey(), Long.toString(dataset))
+        );
+    }
+
+    // Flips the pointer and records the dataset it replaced as the rollback target in one MULTI/EXEC.
+    // The pointer is watched, a concurrent activation discards the transaction and it is retried a few times.
+    // Returns the replaced dataset.
+    public long activateDataset(long dataset) {
+        String activeKey = keys.activeDatasetKey();
+        OptimisticLockingTransactionResult<Long> result;
+        int attempts = 0;
+        do {
+            if (++attempts > MAX_WRITE_ATTEMPTS) {
+                throw new IllegalStateException("Dataset " + dataset + " not activated, the active dataset changed during "
+                        + MAX_WRITE_ATTEMPTS + " attempts");
+            }
+            result = metrics.timeRedis("MULTI", () -> ds.withTransaction(
+                    redis -> {
+                        Long active = redis.value(Long.class).get(activeKey);
+                        return active == null ? 0L : active;
+                    },
+                    (replaced, tx) -> {
+                        tx.value(Long.class).set(activeKey, dataset);
+                        if (replaced != dataset) {
+                            tx.value(Long.class).set(keys.previousDatasetKey(), replaced);
+                        }
+                    },
+                    activeKey
+            ));
+        } while (result.discarded());
+
+        syncShardPointers();
+        // Priorities loaded after the activation are newer than any loaded before it, also after a rollback
+        metrics.timeRedis("INCR", () -> versionCommands.incr(keys.versionKey()));
+        publish(keys.datasetsChannel(), DATASET_ACTIVATED + dataset);
+        return result.getPreTransactionResult();
+    }
+
+    // Copies the active pointer to every shard, the writes of a shard follow its copy. Repeated while the pointer changes
+    // underneath it, so after concurrent activations the copies name the dataset that was activated last.
+    // Writes that reach a shard before its copy is updated go to the replaced dataset, as if they came before the activation.
+    // If this fails, activating the same dataset again brings the copies in line.
+    private void syncShardPointers() {
+        if (!keys.isSharded()) {
+            return;
+        }
+        long active = readActiveDatasetPointer();
+        for (int attempt = 1; ; attempt++) {
+            for (int shard = 0; shard < keys.shardCount(); shard++) {
+                String pointerKey = keys.shardActiveDatasetKey(shard);
+                long dataset = active;
+                metrics.timeRedis("SET", () -> {
+                    versionCommands.set(pointerKey, dataset);
+                    return null;
+                });
+            }
+            long current = readActiveDatasetPointer();
+            if (current == active) {
+                return;
+            }
+            if (attempt == MAX_WRITE_ATTEMPTS) {
+                throw new IllegalStateException("Shard pointers not updated, the active dataset changed during "
+                        + MAX_WRITE_ATTEMPTS + " attempts");
+            }
+            active = current;
+        }
+    }
+
+    // Deletes the keys of a staged dataset shard by shard, all keys of a shard share a cluster slot
+    public void deleteDataset(long dataset) {
+        var datasetKeys = keys.forDataset(dataset);
+        for (int shard = 0; shard < datasetKeys.shardCount(); shard++) {
+            String countriesSetKey = datasetKeys.countriesSetKey(shard);
+            var deletedKeys = new ArrayList<String>();
+            metrics.timeRedis("SMEMBERS", () -> setCommands.smembers(countriesSetKey)).stream()
+                    .map(datasetKeys::countryKey)
+                    .forEach(deletedKeys::add);
+            deletedKeys.add(countriesSetKey);
+            deletedKeys.add(datasetKeys.countryVersionsKey(shard));
+            deletedKeys.add(datasetKeys.contentHashesKey(shard));
+            metrics.timeRedis("DEL", () -> ds.key().del(deletedKeys.toArray(String[]::new)));
+        }
+        metrics.timeRedis("SREM", () -> setCommands.srem(keys.datasetsKey(), Long.toString(dataset)));
+    }
+
+    public PubSubCommands.RedisSubscriber subscribeToDatasetChanges(LongConsumer onStaged, LongConsumer onActivated) {
+        return pubSubCommands.subscribe(keys.datasetsChannel(), message -> {
+            // Runs on the I/O thread, a malformed message must not break the subscription
+            try {
+                if (message.startsWith(DATASET_STAGED)) {
+                    onStaged.accept(Long.parseLong(message.substring(DATASET_STAGED.length())));
+                } else if (message.startsWith(DATASET_ACTIVATED)) {
+                    onActivated.accept(Long.parseLong(message.substring(DATASET_ACTIVATED.length())));
+                }
+            } catch (NumberFormatException e) {
+                LOG.warnf("Ignoring malformed dataset message '%s'", message);
+            }
+        });
+    }
+
+    public List<FilterRule> getFilterRules() {
+        return circuitBreaker.await(() -> metrics.timeRedisAsync("GET", () -> reactiveFilterRulesCommands.get(keys.filterRulesKey())));
+    }
+
+    public void setFilterRules(List<FilterRule> filterRules) {
+        metrics.timeRedis("SET", () -> {
+            filterRulesCommands.set(keys.filterRulesKey(), filterRules);
+            return null;
+        });
+        publish(keys.filterRulesChangesChannel(), keys.filterRulesKey());
+    }
+
+    public PubSubCommands.RedisSubscriber subscribeToFilterRulesChanges(Runnable onChange) {
+        return pubSubCommands.subscribe(keys.filterRulesChangesChannel(), message -> onChange.run());
+    }
+
+    private Map<AdTypeEnum, List<String>> decode(byte[] value) {
+        return value == null ? null : prioritiesCodec.decode(value);
+    }
+
+    private void publish(String channel, String message) {
+        metrics.timeRedis("PUBLISH", () -> {
+            pubSubCommands.publish(channel, message);
+            return null;
+        });
+    }
+
+    // Runs the writes of a shard in a transaction, against the dataset they go to
+    @FunctionalInterface
+    private interface ShardTransaction {
+        void run(int shard, BiConsumer<RedisKeySchema, TransactionalRedisDataSource> writes);
+    }
+
+    private static Map<String, Long> contentHashFields(String countryCode, Map<AdTypeEnum, List<String>> countryPriorities) {
+        var hashes = ContentHash.of(countryPriorities);
+        Map<String, Long> fields = new HashMap<>();
+        for (AdTypeEnum adType : AD_TYPES) {
+            fields.put(contentHashField(countryCode, adType), hashes[adType.ordinal()]);
+        }
+        return fields;
     }
 
-    private String buildCountryKey(String countryCode) {
-        return String.format("%s:%s", COUNTRY_KEY_PREFIX, countryCode);
+    private static String contentHashField(String countryCode, AdTypeEnum adType) {
+        return countryCode + ":" + adType;
     }
 }
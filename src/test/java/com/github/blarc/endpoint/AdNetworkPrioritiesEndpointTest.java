@@ -1,30 +1,54 @@
 package com.github.blarc.endpoint;
 
 import com.github.blarc.model.AdNetworkPriorities;
+import com.github.blarc.model.AdTypeEnum;
+import com.github.blarc.model.PlatformEnum;
+import com.github.blarc.service.AdNetworkPrioritiesService;
+import com.github.blarc.service.PrioritiesSnapshot;
 import com.github.blarc.service.RedisService;
+import io.quarkus.test.junit.QuarkusMock;
 import io.quarkus.test.junit.QuarkusTest;
 import io.quarkus.test.security.TestSecurity;
+import io.restassured.RestAssured;
+import io.restassured.config.RestAssuredConfig;
 import io.restassured.http.ContentType;
+import io.vertx.core.Context;
 import jakarta.inject.Inject;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
 
 import static io.restassured.RestAssured.given;
+import static io.restassured.config.DecoderConfig.decoderConfig;
+import static io.restassured.config.EncoderConfig.encoderConfig;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.hamcrest.Matchers.*;
 
 @QuarkusTest
 public class AdNetworkPrioritiesEndpointTest {
 
+    // RestAssured would otherwise add its own Accept-Encoding and decompress the body before the assertions
+    private static final RestAssuredConfig RAW_BODY = RestAssured.config().decoderConfig(decoderConfig().noContentDecoders());
+
     @Inject
     RedisService redisService;
 
+    @Inject
+    PrioritiesSnapshot prioritiesSnapshot;
+
     @AfterEach
     void cleanupRedis() {
         redisService.delete("AA");
         redisService.delete("BB");
+        prioritiesSnapshot.refresh("AA");
+        prioritiesSnapshot.refresh("BB");
     }
 
     @Test
@@ -41,6 +65,194 @@ public class AdNetworkPrioritiesEndpointTest {
                 .body("rewarded", hasSize(3));
     }
 
+    @Test
+    public void getAdNetworkPriorities_identityEncoding() {
+        given()
+                .config(RAW_BODY)
+                .pathParam("country_code", "AA")
+                .header("Accept-Encoding", "identity")
+                .when()
+                .get("/ads/{country_code}")
+                .then()
+                .statusCode(200)
+                .contentType(ContentType.JSON)
+                .header("Vary", "Accept-Encoding")
+                .header("Content-Encoding", nullValue())
+                .body("banner", hasSize(3));
+    }
+
+    @Test
+    public void getAdNetworkPriorities_gzipEncoding() throws IOException {
+        byte[] body = given()
+                .config(RAW_BODY)
+                .pathParam("country_code", "AA")
+                .header("Accept-Encoding", "gzip")
+                .when()
+                .get("/ads/{country_code}")
+                .then()
+                .statusCode(200)
+                .contentType(ContentType.JSON)
+                .header("Vary", "Accept-Encoding")
+                .header("Content-Encoding", "gzip")
+                .extract().asByteArray();
+
+        // gzip magic bytes
+        assertThat(body).startsWith((byte) 0x1f, (byte) 0x8b);
+        try (var input = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            assertThat(new String(input.readAllBytes(), StandardCharsets.UTF_8))
+                    .contains("\"banner\"")
+                    .contains("\"rewarded\"");
+        }
+    }
+
+    @Test
+    public void getAdNetworkPriorities_notModified() {
+        String etag = given()
+                .pathParam("country_code", "AA")
+                .header("Accept-Encoding", "identity")
+                .when()
+                .get("/ads/{country_code}")
+                .then()
+                .statusCode(200)
+                .header("ETag", notNullValue())
+                .extract().header("ETag");
+
+        given()
+                .pathParam("country_code", "AA")
+                .header("Accept-Encoding", "identity")
+                .header("If-None-Match", etag)
+                .when()
+                .get("/ads/{country_code}")
+                .then()
+                .statusCode(304)
+                .header("ETag", etag);
+    }
+
+    @Test
+    public void getAdNetworkPriorities_modifiedAfterUpdate() {
+        String etag = given()
+                .pathParam("country_code", "AA")
+                .header("Accept-Encoding", "identity")
+                .when()
+                .get("/ads/{country_code}")
+                .then()
+                .statusCode(200)
+                .extract().header("ETag");
+
+        redisService.set("AA", new AdNetworkPriorities(
+                List.of("AdMob"),
+                List.of("Vungle"),
+                List.of("Unity Ads")
+        ).toMap());
+        prioritiesSnapshot.refresh("AA");
+
+        given()
+                .pathParam("country_code", "AA")
+                .header("Accept-Encoding", "identity")
+                .header("If-None-Match", etag)
+                .when()
+                .get("/ads/{country_code}")
+                .then()
+                .statusCode(200)
+                .header("ETag", not(etag));
+    }
+
+    @Test
+    public void getAdNetworkPriorities_metrics() {
+        given()
+                .pathParam("country_code", "AA")
+                .when()
+                .get("/ads/{country_code}")
+                .then()
+                .statusCode(200);
+
+        given()
+                .when()
+                .get("/q/metrics")
+                .then()
+                .statusCode(200)
+                .body(containsString("priorities_requests_total{country=\"other\",platform=\"unknown\",result=\"ok\"}"))
+                .body(containsString("priorities_fallback_total{country=\"other\",reason=\"unknown_country\"}"))
+                .body(containsString("priorities_stage_seconds_bucket{stage=\"filtering\""));
+    }
+
+    @Test
+    public void getAdNetworkPrioritiesBatch_inRequestOrder() {
+        redisService.set("AA", new AdNetworkPriorities(
+                List.of("AdMob", "Facebook"),
+                List.of("Vungle"),
+                List.of("Unity Ads")
+        ).toMap());
+        prioritiesSnapshot.refresh("AA");
+
+        given()
+                .contentType(ContentType.JSON)
+                .body("""
+                        [
+                          {"country_code": "AA", "platform": "ANDROID", "os_version": "9.1.0"},
+                          {"country_code": "AA"},
+                          {"country_code": "AA", "platform": "ANDROID", "os_version": "9.2.0"}
+                        ]
+                        """)
+                .when()
+                .post("/ads/batch")
+                .then()
+                .statusCode(200)
+                .contentType(ContentType.JSON)
+                .body("$", hasSize(3))
+                .body("[0].banner", contains("Facebook", "AdMob-OptOut"))
+                .body("[1].banner", contains("AdMob", "Facebook"))
+                .body("[2].banner", contains("Facebook", "AdMob-OptOut"));
+    }
+
+    @Test
+    public void getAdNetworkPrioritiesBatch_invalidCountryCode() {
+        given()
+                .contentType(ContentType.JSON)
+                .body("""
+                        [{"country_code": "AA"}, {"country_code": "usa"}]
+                        """)
+                .when()
+                .post("/ads/batch")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    public void getAdNetworkPrioritiesBatch_empty() {
+        given()
+                .contentType(ContentType.JSON)
+                .body("[]")
+                .when()
+                .post("/ads/batch")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    public void getAdNetworkPrioritiesBatch_canonicalizedOffEventLoop() {
+        var onEventLoop = new AtomicBoolean(true);
+        QuarkusMock.installMockForType(new AdNetworkPrioritiesService() {
+            @Override
+            public String canonicalOsVersion(String countryCode, PlatformEnum platform, String osVersion) {
+                onEventLoop.set(Context.isOnEventLoopThread());
+                throw new IllegalStateException("Only the calling thread is checked");
+            }
+        }, AdNetworkPrioritiesService.class);
+
+        given()
+                .contentType(ContentType.JSON)
+                .body("""
+                        [{"country_code": "AA", "platform": "ANDROID", "os_version": "9.1.0"}]
+                        """)
+                .when()
+                .post("/ads/batch")
+                .then()
+                .statusCode(500);
+
+        assertThat(onEventLoop).isFalse();
+    }
+
     @Test
     public void getAdNetworkPriorities_withPlatformFilter() {
         given()
@@ -125,6 +337,47 @@ public class AdNetworkPrioritiesEndpointTest {
                 .contentType(ContentType.JSON);
     }
 
+    @Test
+    @TestSecurity(user = "testUser", roles = {"dashboard"})
+    public void getAllAdNetworkPriorities_containsStoredCountries() {
+        redisService.set("AA", new AdNetworkPriorities(
+                List.of("AdMob", "AppLovin"),
+                List.of("Vungle"),
+                List.of("Unity Ads")
+        ).toMap());
+        redisService.set("BB", new AdNetworkPriorities(
+                List.of("Verve"),
+                List.of("SmartAdServer", "AdMob"),
+                List.of("Ogury")
+        ).toMap());
+
+        given()
+                .when()
+                .get("/ads")
+                .then()
+                .statusCode(200)
+                .contentType(ContentType.JSON)
+                .body("AA.banner", contains("AdMob", "AppLovin"))
+                .body("BB.interstitial", contains("SmartAdServer", "AdMob"));
+    }
+
+    @Test
+    @TestSecurity(user = "testUser", roles = {"dashboard"})
+    public void getAllAdNetworkPriorities_redisFailure_returnsServerError() {
+        QuarkusMock.installMockForType(new AdNetworkPrioritiesService() {
+            @Override
+            public Map<String, Map<AdTypeEnum, List<String>>> getAllNetworkPriorities() {
+                throw new IllegalStateException("Redis unavailable");
+            }
+        }, AdNetworkPrioritiesService.class);
+
+        given()
+                .when()
+                .get("/ads")
+                .then()
+                .statusCode(500);
+    }
+
     @Test
     public void getAllAdNetworkPriorities_unauthorized() {
         given()
@@ -156,7 +409,8 @@ public class AdNetworkPrioritiesEndpointTest {
                 .when()
                 .put("/ads")
                 .then()
-                .statusCode(204);
+                .statusCode(204)
+                .header("Server-Timing", startsWith("redis;"));
 
         // Verify the data was saved
         given()
@@ -170,6 +424,145 @@ public class AdNetworkPrioritiesEndpointTest {
                 .body("rewarded", hasItems("Unity Ads", "IronSource", "AdMob"));
     }
 
+    @Test
+    @TestSecurity(user = "testUser", roles = {"processing"})
+    public void patchAdNetworkPriorities_onlyChanged() {
+        var aa = new AdNetworkPriorities(
+                List.of("AdMob", "AppLovin"),
+                List.of("Vungle"),
+                List.of("Unity Ads")
+        );
+        redisService.setAll(Map.of("AA", aa.toMap()));
+        prioritiesSnapshot.refresh("AA");
+        long version = redisService.getVersion("AA");
+
+        given()
+                .contentType(ContentType.JSON)
+                .body(Map.of(
+                        "AA", new AdNetworkPriorities(List.of("AdMob", "AppLovin"), List.of("Vungle"), List.of("AdMob")),
+                        "BB", aa
+                ))
+                .when()
+                .patch("/ads")
+                .then()
+                .statusCode(200)
+                .body("changed.AA", contains("REWARDED"))
+                .body("changed.BB", contains("BANNER", "INTERSTITIAL", "REWARDED"))
+                .body("unchanged", is(0));
+        long patchedVersion = redisService.getVersion("AA");
+        assertThat(patchedVersion).isGreaterThan(version);
+
+        // Sending the same dataset again writes nothing
+        given()
+                .contentType(ContentType.JSON)
+                .body(Map.of(
+                        "AA", new AdNetworkPriorities(List.of("AdMob", "AppLovin"), List.of("Vungle"), List.of("AdMob")),
+                        "BB", aa
+                ))
+                .when()
+                .patch("/ads")
+                .then()
+                .statusCode(200)
+                .body("changed.size()", is(0))
+                .body("unchanged", is(2));
+        assertThat(redisService.getVersion("AA")).isEqualTo(patchedVersion);
+        assertThat(redisService.get("AA").get(AdTypeEnum.REWARDED)).containsExactly("AdMob");
+    }
+
+    @Test
+    @TestSecurity(user = "testUser", roles = {"processing"})
+    public void streamAdNetworkPriorities_ndjson() {
+        given()
+                .config(RestAssured.config().encoderConfig(encoderConfig().encodeContentTypeAs("application/x-ndjson", ContentType.TEXT)))
+                .contentType("application/x-ndjson")
+                .body("""
+                        {"country_code": "AA", "priorities": {"banner": ["Verve"], "interstitial": ["Ogury"], "rewarded": ["AdMob"]}}
+                        {"country_code": "usa", "priorities": {"banner": [], "interstitial": [], "rewarded": []}}
+                        not json
+                        {"country_code": "BB", "priorities": {"banner": ["AppLovin"], "interstitial": [], "rewarded": []}}
+                        """)
+                .when()
+                .put("/ads/stream")
+                .then()
+                .statusCode(200)
+                .body("written", is(2))
+                .body("rejected", is(2))
+                .body("complete", is(true))
+                .body("errors.record", contains(1, 2));
+
+        assertThat(redisService.get("AA").get(AdTypeEnum.BANNER)).containsExactly("Verve");
+        assertThat(redisService.get("BB").get(AdTypeEnum.BANNER)).containsExactly("AppLovin");
+    }
+
+    @Test
+    @TestSecurity(user = "testUser", roles = {"processing"})
+    public void streamAdNetworkPriorities_json() {
+        given()
+                .contentType(ContentType.JSON)
+                .body("""
+                        {
+                          "AA": {"banner": ["Verve"], "interstitial": ["Ogury"], "rewarded": ["AdMob"]},
+                          "BB": {"banner": ["AppLovin"]}
+                        }
+                        """)
+                .when()
+                .put("/ads/stream")
+                .then()
+                .statusCode(200)
+                .body("written", is(1))
+                .body("errors[0].country_code", is("BB"));
+
+        assertThat(redisService.get("AA").get(AdTypeEnum.REWARDED)).containsExactly("AdMob");
+        assertThat(redisService.get("BB")).isNull();
+    }
+
+    @Test
+    @TestSecurity(user = "testUser", roles = {"processing"})
+    public void streamAdNetworkPriorities_nullNetwork() {
+        given()
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"AA": {"banner": ["Verve", null], "interstitial": ["Ogury"], "rewarded": ["AdMob"]}}
+                        """)
+                .when()
+                .put("/ads/stream")
+                .then()
+                .statusCode(200)
+                .body("written", is(0))
+                .body("rejected", is(1))
+                .body("errors[0].message", is("Network names must not be null"));
+    }
+
+    @Test
+    @TestSecurity(user = "testUser", roles = {"processing"})
+    public void updateAdNetworkPriorities_nullNetwork() {
+        given()
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"AA": {"banner": ["Verve", null], "interstitial": ["Ogury"], "rewarded": ["AdMob"]}}
+                        """)
+                .when()
+                .put("/ads")
+                .then()
+                .statusCode(400);
+    }
+
+    @Test
+    @TestSecurity(user = "testUser", roles = {"processing"})
+    public void streamAdNetworkPriorities_truncatedJson() {
+        given()
+                .contentType(ContentType.JSON)
+                .body("""
+                        {"AA": {"banner": ["Verve"], "interstitial": ["Ogury"], "rewarded": ["AdMob"]}, "BB": {"ban
+                        """)
+                .when()
+                .put("/ads/stream")
+                .then()
+                .statusCode(400)
+                .body("written", is(1))
+                .body("complete", is(false));
+    }
+
     @Test
     public void updateAdNetworkPriorities_unauthorized() {
         Map<String, AdNetworkPriorities> priorities = Map.of(
@@ -0,0 +1,131 @@
+package com.github.blarc.endpoint;
+
+import com.github.blarc.model.AdNetworkPriorities;
+import com.github.blarc.model.AdTypeEnum;
+import com.github.blarc.service.DatasetService;
+import com.github.blarc.service.RedisService;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.security.TestSecurity;
+import io.restassured.http.ContentType;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@QuarkusTest
+public class DatasetsEndpointTest {
+
+    @Inject
+    DatasetService datasetService;
+
+    @Inject
+    RedisService redisService;
+
+    @AfterEach
+    void cleanupRedis() {
+        // Back to the priorities the other tests write in place
+        datasetService.activate(0);
+        redisService.getDatasets().forEach(redisService::deleteDataset);
+    }
+
+    private long stage(AdNetworkPriorities priorities) {
+        return given()
+                .contentType(ContentType.JSON)
+                .body(Map.of("AA", priorities))
+                .when()
+                .post("/datasets")
+                .then()
+                .statusCode(201)
+                .header("Location", endsWith("/activate"))
+                .extract().jsonPath().getList("staged", Long.class)
+                .getLast();
+    }
+
+    private void assertBanner(String network) {
+        given()
+                .pathParam("country_code", "AA")
+                .when()
+                .get("/ads/{country_code}")
+                .then()
+                .statusCode(200)
+                .body("banner", hasItem(network));
+    }
+
+    @Test
+    public void getDatasets_unauthorized() {
+        given()
+                .when()
+                .get("/datasets")
+                .then()
+                .statusCode(401)
+                .header("WWW-Authenticate", startsWithIgnoringCase("basic"));
+    }
+
+    @Test
+    @TestSecurity(user = "testUser", roles = {"processing"})
+    public void stageActivateAndRollback() {
+        long dataset = stage(new AdNetworkPriorities(List.of("Verve"), List.of("Ogury"), List.of("AdMob")));
+
+        // Staging doesn't change the served priorities
+        assertBanner("AdMob");
+
+        given()
+                .when()
+                .post("/datasets/{dataset}/activate", dataset)
+                .then()
+                .statusCode(200)
+                .body("active", is((int) dataset))
+                .body("previous", is(0));
+        assertBanner("Verve");
+
+        given()
+                .when()
+                .post("/datasets/rollback")
+                .then()
+                .statusCode(200)
+                .body("active", is(0))
+                .body("previous", is((int) dataset));
+        assertBanner("AdMob");
+    }
+
+    @Test
+    @TestSecurity(user = "testUser", roles = {"processing"})
+    public void set_instanceBehindPointer_writesActivatedDataset() {
+        long dataset = stage(new AdNetworkPriorities(List.of("Verve"), List.of("Ogury"), List.of("AdMob")));
+        // Flips the pointer only, the instance serves the replaced dataset until it is notified
+        redisService.activateDataset(dataset);
+
+        redisService.set("AB", Map.of(AdTypeEnum.BANNER, List.of("Verve")));
+
+        assertThat(redisService.getAll(dataset)).containsKey("AB");
+        assertThat(redisService.getAll(0)).doesNotContainKey("AB");
+    }
+
+    @Test
+    @TestSecurity(user = "testUser", roles = {"processing"})
+    public void activateDataset_unknown() {
+        given()
+                .when()
+                .post("/datasets/{dataset}/activate", Long.MAX_VALUE)
+                .then()
+                .statusCode(404);
+    }
+
+    @Test
+    @TestSecurity(user = "testUser", roles = {"processing"})
+    public void stageDataset_empty() {
+        given()
+                .contentType(ContentType.JSON)
+                .body(Map.of())
+                .when()
+                .post("/datasets")
+                .then()
+                .statusCode(400);
+    }
+}
@@ -0,0 +1,93 @@
+package com.github.blarc.endpoint;
+
+import com.github.blarc.grpc.AdType;
+import com.github.blarc.grpc.AdTypePriorities;
+import com.github.blarc.grpc.Platform;
+import com.github.blarc.grpc.PrioritiesRequest;
+import com.github.blarc.grpc.PrioritiesResponse;
+import com.github.blarc.grpc.PrioritiesService;
+import com.github.blarc.model.AdNetworkPriorities;
+import com.github.blarc.service.PrioritiesSnapshot;
+import com.github.blarc.service.RedisService;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.quarkus.grpc.GrpcClient;
+import io.quarkus.test.junit.QuarkusTest;
+import io.smallrye.mutiny.Multi;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@QuarkusTest
+public class PrioritiesGrpcEndpointTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @GrpcClient("priorities")
+    PrioritiesService client;
+
+    @Inject
+    RedisService redisService;
+
+    @Inject
+    PrioritiesSnapshot prioritiesSnapshot;
+
+    @AfterEach
+    void cleanupRedis() {
+        redisService.delete("AA");
+        prioritiesSnapshot.refresh("AA");
+    }
+
+    @Test
+    public void getPriorities() {
+        redisService.set("AA", new AdNetworkPriorities(
+                List.of("AdMob", "Verve"),
+                List.of("Ogury"),
+                List.of("Unity Ads")
+        ).toMap());
+        prioritiesSnapshot.refresh("AA");
+
+        var response = client.getPriorities(PrioritiesRequest.newBuilder()
+                        .setCountryCode("AA")
+                        .setPlatform(Platform.PLATFORM_IOS)
+                        .setOsVersion("17.4")
+                        .build())
+                .await().atMost(TIMEOUT);
+
+        assertThat(response.getCountryCode()).isEqualTo("AA");
+        assertThat(response.getVersion()).isPositive();
+        assertThat(response.getPrioritiesList())
+                .extracting(AdTypePriorities::getAdType)
+                .containsExactly(AdType.AD_TYPE_BANNER, AdType.AD_TYPE_INTERSTITIAL, AdType.AD_TYPE_REWARDED);
+        assertThat(response.getPriorities(0).getNetworksList()).startsWith("AdMob", "Verve");
+    }
+
+    @Test
+    public void getPriorities_invalidCountryCode() {
+        var request = PrioritiesRequest.newBuilder().setCountryCode("usa").build();
+
+        assertThatThrownBy(() -> client.getPriorities(request).await().atMost(TIMEOUT))
+                .isInstanceOfSatisfying(StatusRuntimeException.class, e ->
+                        assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.INVALID_ARGUMENT)
+                );
+    }
+
+    @Test
+    public void streamPriorities_inRequestOrder() {
+        var requests = Multi.createFrom().items("BB", "AA", "CN")
+                .map(countryCode -> PrioritiesRequest.newBuilder().setCountryCode(countryCode).build());
+
+        var countryCodes = client.streamPriorities(requests)
+                .map(PrioritiesResponse::getCountryCode)
+                .collect().asList()
+                .await().atMost(TIMEOUT);
+
+        assertThat(countryCodes).containsExactly("BB", "AA", "CN");
+    }
+}
@@ -45,10 +45,17 @@ public class AdNetworkPrioritiesServiceTest {
     @Inject
     RedisService redisService;
 
+    @Inject
+    PrioritiesSnapshot prioritiesSnapshot;
+
+    @Inject
+    NetworkRegistry networkRegistry;
+
     @AfterEach
     void cleanupRedis() {
         for (String countryCode : testAdNetworkPrioritiesMap.keySet()) {
             redisService.delete(countryCode);
+            prioritiesSnapshot.refresh(countryCode);
         }
     }
 
@@ -99,4 +106,21 @@ public class AdNetworkPrioritiesServiceTest {
         assertThat(networkPrioritiesMap.get(AdTypeEnum.REWARDED)).size().isEqualTo(4);
         assertThat(networkPrioritiesMap.get(AdTypeEnum.REWARDED)).contains("AdMob-OptOut");
     }
+
+    @Test
+    public void updateAdNetworkPriorities_updatesSnapshot() {
+        adNetworkPrioritiesService.updateAdNetworkPriorities(testAdNetworkPrioritiesMap);
+
+        assertThat(prioritiesSnapshot.get("DD").toMap(networkRegistry)).isEqualTo(testAdNetworkPrioritiesMap.get("DD").toMap());
+        assertThat(prioritiesSnapshot.getAll()).containsKeys("AA", "BB", "CC", "DD");
+    }
+
+    @Test
+    public void snapshot_refreshRemovesDeletedCountry() {
+        adNetworkPrioritiesService.updateAdNetworkPriorities(testAdNetworkPrioritiesMap);
+        redisService.delete("AA");
+        prioritiesSnapshot.refresh("AA");
+
+        assertThat(prioritiesSnapshot.get("AA")).isNull();
+    }
 }
@@ -0,0 +1,109 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.FilterRule;
+import com.github.blarc.model.PlatformEnum;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CompiledFilterRulesTest {
+
+    private static final List<String> NETWORKS = List.of("AdMob", "Facebook", "Unity Ads");
+
+    private final NetworkRegistry networkRegistry = new NetworkRegistry();
+
+    private List<String> filter(List<FilterRule> rules, String countryCode, PlatformEnum platform, String osVersion) {
+        var filtered = CompiledFilterRules.compile(rules, networkRegistry)
+                .decisionFor(countryCode, platform, osVersion)
+                .apply(networkRegistry.encode(NETWORKS));
+        return networkRegistry.decode(filtered);
+    }
+
+    @Test
+    public void defaultRules_android9() {
+        assertThat(filter(FilterRuleEngine.DEFAULT_RULES, "US", PlatformEnum.ANDROID, "9.3.1"))
+                .containsExactly("Facebook", "Unity Ads", "AdMob-OptOut");
+    }
+
+    @Test
+    public void defaultRules_android10() {
+        assertThat(filter(FilterRuleEngine.DEFAULT_RULES, "US", PlatformEnum.ANDROID, "10.0"))
+                .containsExactly("AdMob", "Facebook", "Unity Ads");
+    }
+
+    @Test
+    public void defaultRules_china() {
+        assertThat(filter(FilterRuleEngine.DEFAULT_RULES, "CN", PlatformEnum.IOS, "17.4.1"))
+                .containsExactly("AdMob", "Unity Ads");
+    }
+
+    @Test
+    public void defaultRules_unknownPlatformAndVersion() {
+        assertThat(filter(FilterRuleEngine.DEFAULT_RULES, "US", null, null))
+                .containsExactly("AdMob", "Facebook", "Unity Ads");
+    }
+
+    @Test
+    public void versionRange_isInclusiveMinExclusiveMax() {
+        var rules = List.of(FilterRule.remove(null, PlatformEnum.IOS, "14.5", "16", "Facebook"));
+
+        assertThat(filter(rules, "US", PlatformEnum.IOS, "14.4.9")).contains("Facebook");
+        assertThat(filter(rules, "US", PlatformEnum.IOS, "14.5")).doesNotContain("Facebook");
+        assertThat(filter(rules, "US", PlatformEnum.IOS, "15.8.1")).doesNotContain("Facebook");
+        assertThat(filter(rules, "US", PlatformEnum.IOS, "16.0")).contains("Facebook");
+        assertThat(filter(rules, "US", PlatformEnum.ANDROID, "15.0")).contains("Facebook");
+    }
+
+    @Test
+    public void unchangedNetworks_shareTheSameArray() {
+        var networkIds = networkRegistry.encode(NETWORKS);
+        var decision = CompiledFilterRules.compile(List.of(), networkRegistry).decisionFor("US", null, null);
+
+        assertThat(decision.apply(networkIds)).isSameAs(networkIds);
+    }
+
+    @Test
+    public void skippedAppend_sharesTheSameArray() {
+        var networkIds = networkRegistry.encode(NETWORKS);
+        var decision = CompiledFilterRules.compile(List.of(FilterRule.appendUnlessPresent("AdMob-OptOut", "AdMob")), networkRegistry)
+                .decisionFor("US", null, null);
+
+        assertThat(decision.apply(networkIds)).isSameAs(networkIds);
+    }
+
+    @Test
+    public void filteredNetworks_areBuiltOncePerInput() {
+        var networkIds = networkRegistry.encode(NETWORKS);
+        var decision = CompiledFilterRules.compile(FilterRuleEngine.DEFAULT_RULES, networkRegistry)
+                .decisionFor("CN", PlatformEnum.IOS, "17.4.1");
+
+        var filtered = decision.apply(networkIds);
+        assertThat(filtered).isNotSameAs(networkIds);
+        assertThat(decision.apply(networkIds)).isSameAs(filtered);
+    }
+
+    @Test
+    public void removalCancelsEarlierAppend() {
+        var rules = List.of(
+                FilterRule.appendUnlessPresent("AppLovin", null),
+                FilterRule.remove("DE", null, null, null, "AppLovin")
+        );
+
+        assertThat(filter(rules, "US", null, null)).endsWith("AppLovin");
+        assertThat(filter(rules, "DE", null, null)).doesNotContain("AppLovin");
+    }
+
+    @Test
+    public void canonicalOsVersion_collapsesVersionsWithEqualDecisions() {
+        var compiledRules = CompiledFilterRules.compile(FilterRuleEngine.DEFAULT_RULES, networkRegistry);
+
+        assertThat(compiledRules.canonicalOsVersion("US", PlatformEnum.ANDROID, "9.3.1")).isEqualTo("9.0.0");
+        assertThat(compiledRules.canonicalOsVersion("US", PlatformEnum.ANDROID, "9.0")).isEqualTo("9.0.0");
+        assertThat(compiledRules.canonicalOsVersion("US", PlatformEnum.ANDROID, "8.1.0")).isNull();
+        assertThat(compiledRules.canonicalOsVersion("US", PlatformEnum.ANDROID, "14")).isNull();
+        assertThat(compiledRules.canonicalOsVersion("US", PlatformEnum.IOS, "17.4.1")).isNull();
+        assertThat(compiledRules.canonicalOsVersion("CN", null, "9.3.1")).isNull();
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.blarc.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ConcurrencyLimiterTest {
+
+    private static final int WINDOW_SIZE = 10;
+    private static final long FAST = 1_000_000;
+    private static final long SLOW = 10 * FAST;
+
+    private final ConcurrencyLimiter limiter = new ConcurrencyLimiter(20, 5, 100, WINDOW_SIZE);
+
+    private void window(long latencyNanos, int inFlight) {
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            limiter.onSample(latencyNanos, inFlight);
+        }
+    }
+
+    @Test
+    public void tryAcquire_rejectsOverLimit() {
+        for (int i = 0; i < 20; i++) {
+            assertThat(limiter.tryAcquire()).isTrue();
+        }
+
+        assertThat(limiter.tryAcquire()).isFalse();
+        assertThat(limiter.inFlight()).isEqualTo(20);
+        assertThat(limiter.rejected()).isEqualTo(1);
+
+        limiter.release(System.nanoTime());
+        assertThat(limiter.tryAcquire()).isTrue();
+    }
+
+    @Test
+    public void stableLatency_growsLimit() {
+        for (int i = 0; i < 20; i++) {
+            window(FAST, limiter.limit());
+        }
+
+        assertThat(limiter.limit()).isGreaterThan(30);
+    }
+
+    @Test
+    public void unusedLimit_doesNotGrow() {
+        for (int i = 0; i < 20; i++) {
+            window(FAST, 2);
+        }
+
+        assertThat(limiter.limit()).isEqualTo(20);
+    }
+
+    @Test
+    public void risingLatency_shrinksLimit() {
+        window(FAST, 20);
+        for (int i = 0; i < 10; i++) {
+            window(SLOW, limiter.limit());
+        }
+
+        assertThat(limiter.limit()).isLessThan(15);
+    }
+}
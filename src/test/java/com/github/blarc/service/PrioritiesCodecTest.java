@@ -0,0 +1,92 @@
+package com.github.blarc.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.blarc.model.AdTypeEnum;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PrioritiesCodecTest {
+
+    private static final Map<AdTypeEnum, List<String>> PRIORITIES = Map.of(
+            AdTypeEnum.BANNER, List.of("AdMob", "AdX", "Unity Ads"),
+            AdTypeEnum.INTERSTITIAL, List.of("Digital Turbine", "Ogury"),
+            AdTypeEnum.REWARDED, List.of()
+    );
+
+    private final PrioritiesCodec codec = new PrioritiesCodec();
+
+    @BeforeEach
+    void setup() {
+        codec.objectMapper = new ObjectMapper();
+        codec.binaryValues = true;
+    }
+
+    @Test
+    public void binary_roundTrip() {
+        assertThat(codec.decode(codec.encode(PRIORITIES))).isEqualTo(PRIORITIES);
+    }
+
+    @Test
+    public void binary_smallerThanJson() throws Exception {
+        byte[] json = codec.objectMapper.writeValueAsBytes(PRIORITIES);
+        assertThat(codec.encode(PRIORITIES).length).isLessThan(json.length);
+    }
+
+    @Test
+    public void binary_nonAsciiNetworkNames() {
+        var priorities = Map.of(AdTypeEnum.BANNER, List.of("Réseau", "广告"));
+        assertThat(codec.decode(codec.encode(priorities))).isEqualTo(priorities);
+    }
+
+    @Test
+    public void legacyJson_isRead() {
+        var json = """
+                {"BANNER":["AdMob","AdX"],"INTERSTITIAL":["Ogury"],"REWARDED":["Unity Ads"]}
+                """.getBytes(StandardCharsets.UTF_8);
+        assertThat(codec.decode(json)).isEqualTo(Map.of(
+                AdTypeEnum.BANNER, List.of("AdMob", "AdX"),
+                AdTypeEnum.INTERSTITIAL, List.of("Ogury"),
+                AdTypeEnum.REWARDED, List.of("Unity Ads")
+        ));
+    }
+
+    @Test
+    public void jsonValues_writtenWhenBinaryDisabled() {
+        codec.binaryValues = false;
+        byte[] encoded = codec.encode(PRIORITIES);
+        assertThat(encoded[0]).isEqualTo((byte) '{');
+        assertThat(codec.decode(encoded)).isEqualTo(PRIORITIES);
+    }
+
+    @Test
+    public void truncatedBinary_isRejected() {
+        byte[] encoded = codec.encode(PRIORITIES);
+
+        assertThatThrownBy(() -> codec.decode(Arrays.copyOf(encoded, 1))).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> codec.decode(Arrays.copyOf(encoded, encoded.length - 1))).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void networkCountBeyondValue_isRejected() {
+        byte[] encoded = codec.encode(Map.of(AdTypeEnum.BANNER, List.of("AdMob")));
+        // Magic, format version, one ad type, its ordinal, then a count of Integer.MAX_VALUE
+        byte[] forged = Arrays.copyOf(encoded, 9);
+        forged[4] = (byte) 0xFF;
+        forged[5] = (byte) 0xFF;
+        forged[6] = (byte) 0xFF;
+        forged[7] = (byte) 0xFF;
+        forged[8] = (byte) 0x07;
+
+        assertThatThrownBy(() -> codec.decode(forged))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("exceeds");
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.AdNetworkPriorities;
+import com.github.blarc.model.ContentEncodingEnum;
+import com.github.blarc.model.CountryCode;
+import com.github.blarc.model.PlatformEnum;
+import io.quarkus.test.junit.QuarkusTest;
+import jakarta.inject.Inject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@QuarkusTest
+public class PrioritiesResponseCacheTest {
+
+    private static final int ITERATIONS = 100_000;
+
+    @Inject
+    PrioritiesResponseCache prioritiesResponseCache;
+
+    @Inject
+    PrioritiesMetrics metrics;
+
+    @Inject
+    RedisService redisService;
+
+    @Inject
+    PrioritiesSnapshot prioritiesSnapshot;
+
+    @AfterEach
+    void cleanupRedis() {
+        redisService.delete("AA");
+        prioritiesSnapshot.refresh("AA");
+    }
+
+    @Test
+    public void getIfPresent_onlyAfterBuilt() {
+        assertThat(prioritiesResponseCache.getIfPresent("ZZ", PlatformEnum.IOS, "17.1")).isNull();
+
+        var built = prioritiesResponseCache.get("ZZ", PlatformEnum.IOS, "17.1").await().indefinitely();
+
+        // Versions the filter rules don't distinguish share the response
+        assertThat(prioritiesResponseCache.getIfPresent("ZZ", PlatformEnum.IOS, "16.0")).isSameAs(built);
+    }
+
+    @Test
+    public void invalidate_rebuildsChangedCountry() {
+        var before = prioritiesResponseCache.get("AA", null, null).await().indefinitely();
+
+        redisService.set("AA", new AdNetworkPriorities(
+                List.of("Verve"),
+                List.of("Ogury"),
+                List.of("AdMob")
+        ).toMap());
+        prioritiesSnapshot.refresh("AA");
+
+        var after = prioritiesResponseCache.get("AA", null, null).await().indefinitely();
+        assertThat(after.etag()).isNotEqualTo(before.etag());
+        assertThat(new String(after.identity())).contains("Verve");
+    }
+
+    @Test
+    public void getIfPresent_doesNotAllocate() {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        String ifNoneMatch = prioritiesResponseCache.get("AA", PlatformEnum.ANDROID, "14").await().indefinitely()
+                .etag(ContentEncodingEnum.GZIP);
+
+        // Warms up the lookup, so the JIT and one-time registrations don't count
+        serve(ifNoneMatch);
+        long allocated = threads.getCurrentThreadAllocatedBytes();
+        long length = serve(ifNoneMatch);
+        allocated = threads.getCurrentThreadAllocatedBytes() - allocated;
+
+        assertThat(length).isPositive();
+        assertThat(allocated).isLessThan(ITERATIONS);
+    }
+
+    // Everything GET /ads/{country_code} does for a cached response before building the Response itself
+    private long serve(String ifNoneMatch) {
+        long length = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            String countryCode = "AA";
+            if (!CountryCode.isValid(countryCode)) {
+                throw new IllegalStateException("Invalid country code");
+            }
+
+            long start = System.nanoTime();
+            var encodedResponse = prioritiesResponseCache.getIfPresent(countryCode, PlatformEnum.ANDROID, "14.2");
+            metrics.recordCacheLookup(start);
+
+            var matchingTag = encodedResponse.matchingTag(ifNoneMatch);
+            metrics.recordRequest(countryCode, PlatformEnum.ANDROID, matchingTag != null
+                    ? PrioritiesMetrics.RESULT_NOT_MODIFIED
+                    : PrioritiesMetrics.RESULT_OK);
+            var encoding = encodedResponse.select("gzip, deflate, br");
+            length += encodedResponse.body(encoding).length + encodedResponse.etag(encoding).length();
+        }
+        return length;
+    }
+}
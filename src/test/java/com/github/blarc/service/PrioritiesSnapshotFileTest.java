@@ -0,0 +1,118 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.AdTypeEnum;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PrioritiesSnapshotFileTest {
+
+    @TempDir
+    Path directory;
+
+    private final NetworkRegistry networkRegistry = new NetworkRegistry();
+    private final PrioritiesSnapshotFile snapshotFile = new PrioritiesSnapshotFile();
+
+    @BeforeEach
+    void setup() {
+        snapshotFile.networkRegistry = networkRegistry;
+        snapshotFile.file = Optional.of(directory.resolve("snapshots").resolve("priorities.snapshot"));
+    }
+
+    @Test
+    public void roundTrip() {
+        var priorities = Map.of(
+                "US", CompactPriorities.encode(Map.of(
+                        AdTypeEnum.BANNER, List.of("AdMob", "AdX"),
+                        AdTypeEnum.REWARDED, List.of()
+                ), 7, networkRegistry),
+                "SI", CompactPriorities.encode(Map.of(
+                        AdTypeEnum.INTERSTITIAL, List.of("Ogury", "AdMob")
+                ), 3, networkRegistry)
+        );
+
+        snapshotFile.write(() -> new PrioritiesSnapshotFile.Contents(7, priorities));
+        var restoredSnapshot = snapshotFile.read();
+        var restored = restoredSnapshot.priorities();
+
+        assertThat(restoredSnapshot.generation()).isEqualTo(7);
+        assertThat(restored).containsOnlyKeys("US", "SI");
+        assertThat(restored.get("US").version()).isEqualTo(7);
+        assertThat(restored.get("US").toMap(networkRegistry)).isEqualTo(priorities.get("US").toMap(networkRegistry));
+        assertThat(restored.get("SI").toMap(networkRegistry)).isEqualTo(Map.of(
+                AdTypeEnum.INTERSTITIAL, List.of("Ogury", "AdMob")
+        ));
+    }
+
+    @Test
+    public void missingFile() {
+        assertThat(snapshotFile.read()).isEqualTo(PrioritiesSnapshotFile.Contents.EMPTY);
+    }
+
+    @Test
+    public void corruptedFile() throws Exception {
+        write(1, "AdMob");
+        corrupt(1);
+
+        assertThat(snapshotFile.read()).isEqualTo(PrioritiesSnapshotFile.Contents.EMPTY);
+    }
+
+    @Test
+    public void corruptedFile_previousGenerationRestored() throws Exception {
+        write(1, "AdMob");
+        write(2, "Verve");
+        corrupt(2);
+
+        var restored = snapshotFile.read();
+        assertThat(restored.generation()).isEqualTo(1);
+        assertThat(restored.priorities().get("US").toMap(networkRegistry).get(AdTypeEnum.BANNER)).containsExactly("AdMob");
+    }
+
+    @Test
+    public void olderGeneration_doesNotReplaceNewer() {
+        write(5, "Verve");
+        // An instance that is behind writes its snapshot later
+        write(3, "AdMob");
+
+        var restored = snapshotFile.read();
+        assertThat(restored.generation()).isEqualTo(5);
+        assertThat(restored.priorities().get("US").toMap(networkRegistry).get(AdTypeEnum.BANNER)).containsExactly("Verve");
+    }
+
+    @Test
+    public void olderGenerations_deleted() {
+        write(1, "AdMob");
+        write(2, "AdX");
+        write(3, "Verve");
+
+        assertThat(generationFile(1)).doesNotExist();
+        assertThat(generationFile(2)).exists();
+        assertThat(generationFile(3)).exists();
+    }
+
+    private void write(long generation, String bannerNetwork) {
+        snapshotFile.write(() -> new PrioritiesSnapshotFile.Contents(generation, Map.of(
+                "US", CompactPriorities.encode(Map.of(AdTypeEnum.BANNER, List.of(bannerNetwork)), generation, networkRegistry)
+        )));
+    }
+
+    private void corrupt(long generation) throws Exception {
+        var path = generationFile(generation);
+        byte[] content = Files.readAllBytes(path);
+        content[content.length / 2] ^= 1;
+        Files.write(path, content);
+    }
+
+    private Path generationFile(long generation) {
+        var path = snapshotFile.file.orElseThrow();
+        return path.resolveSibling(path.getFileName() + "." + generation);
+    }
+}
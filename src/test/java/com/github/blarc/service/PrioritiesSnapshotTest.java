@@ -0,0 +1,241 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.AdTypeEnum;
+import io.quarkus.cache.Cache;
+import io.quarkus.redis.datasource.ReactiveRedisDataSource;
+import io.quarkus.redis.datasource.RedisDataSource;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Interleavings of full loads with activations, updates and rollbacks. Redis is replaced by datasets in memory,
+// a load of a dataset can be paused until the test lets it continue.
+public class PrioritiesSnapshotTest {
+
+    private final FakeRedisService redisService = new FakeRedisService();
+    private final NetworkRegistry networkRegistry = new NetworkRegistry();
+    private final PrioritiesSnapshot snapshot = new PrioritiesSnapshot();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @BeforeEach
+    void setup() {
+        var snapshotFile = new PrioritiesSnapshotFile();
+        snapshotFile.file = Optional.empty();
+
+        snapshot.redisService = redisService;
+        snapshot.networkRegistry = networkRegistry;
+        snapshot.snapshotFile = snapshotFile;
+        snapshot.responseCache = new PrioritiesResponseCache() {
+            @Override
+            public void invalidate(Set<String> countryCodes) {
+            }
+        };
+        snapshot.countryPrioritiesCache = noopCache();
+        snapshot.retainedDatasets = 3;
+
+        redisService.write(0, "AA", "AdMob");
+        redisService.write(5, "AA", "Verve");
+        snapshot.reload();
+    }
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void reload_datasetActivatedDuringLoad_keepsActivatedDataset() throws Exception {
+        var reload = paused(0, () -> {
+            snapshot.reload();
+            return null;
+        });
+
+        redisService.activeDatasetPointer = 5;
+        snapshot.activate(5);
+        redisService.resume();
+        reload.get(5, TimeUnit.SECONDS);
+
+        assertThat(redisService.activeDataset()).isEqualTo(5);
+        assertThat(banner("AA")).containsExactly("Verve");
+    }
+
+    @Test
+    public void activate_countryUpdatedDuringLoad_readFromActivatedDataset() throws Exception {
+        redisService.activeDatasetPointer = 5;
+        var activation = paused(5, () -> {
+            snapshot.activate(5);
+            return null;
+        });
+
+        // Written to the activated dataset after its load read it, the notification reads the replaced one
+        redisService.write(5, "AB", "Ogury");
+        snapshot.refreshAsync("AB");
+        awaitUntil(() -> redisService.reads.contains("AB"));
+        redisService.resume();
+        activation.get(5, TimeUnit.SECONDS);
+
+        awaitUntil(() -> snapshot.get("AB") != null);
+        assertThat(banner("AB")).containsExactly("Ogury");
+        assertThat(banner("AA")).containsExactly("Verve");
+    }
+
+    @Test
+    public void prefetch_rolledBackDuringLoad_keepsUpdatedDataset() throws Exception {
+        var prefetch = paused(5, () -> {
+            snapshot.prefetch(5);
+            return null;
+        });
+
+        // Activated and updated before the prefetch completes, then rolled back
+        redisService.activeDatasetPointer = 5;
+        snapshot.activate(5);
+        redisService.write(5, "AA", "Ogury");
+        snapshot.put("AA", Map.of(AdTypeEnum.BANNER, List.of("Ogury")), redisService.version("AA"));
+        redisService.activeDatasetPointer = 0;
+        snapshot.activate(0);
+        redisService.resume();
+        prefetch.get(5, TimeUnit.SECONDS);
+
+        assertThat(banner("AA")).containsExactly("AdMob");
+        redisService.activeDatasetPointer = 5;
+        snapshot.activate(5);
+        assertThat(banner("AA")).containsExactly("Ogury");
+    }
+
+    private List<String> banner(String countryCode) {
+        return snapshot.get(countryCode).toMap(networkRegistry).get(AdTypeEnum.BANNER);
+    }
+
+    // Runs the task until it loads the dataset, the load continues after resume
+    private <T> Future<T> paused(long dataset, Callable<T> task) throws InterruptedException {
+        redisService.pause(dataset);
+        var future = executor.submit(task);
+        assertThat(redisService.paused.await(5, TimeUnit.SECONDS)).isTrue();
+        return future;
+    }
+
+    private static void awaitUntil(Supplier<Boolean> condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.get()) {
+            assertThat(System.nanoTime()).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static Cache noopCache() {
+        return (Cache) Proxy.newProxyInstance(Cache.class.getClassLoader(), new Class<?>[]{Cache.class}, (proxy, method, args) ->
+                method.getReturnType() == Uni.class ? Uni.createFrom().voidItem() : null
+        );
+    }
+
+    private static <T> T unused(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> null));
+    }
+
+    private static class FakeRedisService extends RedisService {
+
+        private final Map<Long, Map<String, Map<AdTypeEnum, List<String>>>> datasets = new ConcurrentHashMap<>();
+        private final Map<String, Long> versions = new ConcurrentHashMap<>();
+        // Countries read by change notifications
+        private final Set<String> reads = ConcurrentHashMap.newKeySet();
+        private volatile long activeDatasetPointer;
+        private volatile long pausedDataset = -1;
+        private volatile CountDownLatch paused = new CountDownLatch(1);
+        private volatile CountDownLatch resumed = new CountDownLatch(1);
+        private long version;
+
+        FakeRedisService() {
+            super(unused(RedisDataSource.class), unused(ReactiveRedisDataSource.class), null, null, null, new RedisKeySchema("test", 0));
+        }
+
+        synchronized void write(long dataset, String countryCode, String bannerNetwork) {
+            datasets.computeIfAbsent(dataset, ignored -> new ConcurrentHashMap<>())
+                    .put(countryCode, Map.of(AdTypeEnum.BANNER, List.of(bannerNetwork)));
+            versions.put(countryCode, ++version);
+        }
+
+        long version(String countryCode) {
+            return versions.get(countryCode);
+        }
+
+        // Only the next load of the dataset is paused
+        void pause(long dataset) {
+            paused = new CountDownLatch(1);
+            resumed = new CountDownLatch(1);
+            pausedDataset = dataset;
+        }
+
+        void resume() {
+            resumed.countDown();
+        }
+
+        @Override
+        public synchronized long getVersionCounter() {
+            return version;
+        }
+
+        @Override
+        public long getActiveDataset() {
+            return activeDatasetPointer;
+        }
+
+        @Override
+        public Map<String, Map<AdTypeEnum, List<String>>> getAll() {
+            return getAll(activeDataset());
+        }
+
+        @Override
+        public Map<String, Map<AdTypeEnum, List<String>>> getAll(long dataset) {
+            // Read before pausing, writes during the pause are missing from the result
+            var priorities = Map.copyOf(datasets.getOrDefault(dataset, Map.of()));
+            if (pausedDataset == dataset) {
+                pausedDataset = -1;
+                paused.countDown();
+                try {
+                    resumed.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return priorities;
+        }
+
+        @Override
+        public Map<String, Long> getVersions() {
+            return getVersions(activeDataset());
+        }
+
+        @Override
+        public Map<String, Long> getVersions(long dataset) {
+            return Map.copyOf(versions);
+        }
+
+        @Override
+        public Uni<Map<AdTypeEnum, List<String>>> getAsync(String countryCode) {
+            reads.add(countryCode);
+            return Uni.createFrom().item(datasets.getOrDefault(activeDataset(), Map.of()).get(countryCode));
+        }
+
+        @Override
+        public Uni<Long> getVersionAsync(String countryCode) {
+            return Uni.createFrom().item(versions.getOrDefault(countryCode, 0L));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.blarc.service;
+
+import com.github.blarc.model.CircuitStateEnum;
+import io.smallrye.mutiny.Uni;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class RedisCircuitBreakerTest {
+
+    private final RedisCircuitBreaker circuitBreaker = new RedisCircuitBreaker();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @BeforeEach
+    void setup() {
+        circuitBreaker.latencyBudget = Duration.ofMillis(50);
+        circuitBreaker.failureThreshold = 2;
+        circuitBreaker.openDuration = Duration.ofHours(1);
+    }
+
+    private String succeed() {
+        return circuitBreaker.await(() -> {
+            calls.incrementAndGet();
+            return Uni.createFrom().item("OK");
+        });
+    }
+
+    private void fail() {
+        assertThatThrownBy(() -> circuitBreaker.await(() -> {
+            calls.incrementAndGet();
+            return Uni.createFrom().failure(new IllegalStateException("Redis is down"));
+        })).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void closed_passesCalls() {
+        assertThat(succeed()).isEqualTo("OK");
+        assertThat(circuitBreaker.state()).isEqualTo(CircuitStateEnum.CLOSED);
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        fail();
+        assertThat(circuitBreaker.state()).isEqualTo(CircuitStateEnum.CLOSED);
+        fail();
+        assertThat(circuitBreaker.state()).isEqualTo(CircuitStateEnum.OPEN);
+
+        // Rejected without calling Redis
+        fail();
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    public void checksTheCircuitOnSubscription() {
+        Uni<String> assembled = circuitBreaker.call(() -> {
+            calls.incrementAndGet();
+            return Uni.createFrom().item("OK");
+        });
+        fail();
+        fail();
+
+        assertThatThrownBy(() -> assembled.await().indefinitely()).isInstanceOf(IllegalStateException.class);
+        assertThat(calls).hasValue(2);
+    }
+
+    @Test
+    public void successResetsFailures() {
+        fail();
+        succeed();
+        fail();
+        assertThat(circuitBreaker.state()).isEqualTo(CircuitStateEnum.CLOSED);
+    }
+
+    @Test
+    public void slowCallCountsAsFailure() {
+        circuitBreaker.failureThreshold = 1;
+        assertThatThrownBy(() -> circuitBreaker.await(() -> Uni.createFrom().nothing()));
+        assertThat(circuitBreaker.state()).isEqualTo(CircuitStateEnum.OPEN);
+    }
+
+    @Test
+    public void halfOpen_closesAfterSuccessfulTrial() {
+        circuitBreaker.openDuration = Duration.ZERO;
+        fail();
+        fail();
+        assertThat(circuitBreaker.state()).isEqualTo(CircuitStateEnum.HALF_OPEN);
+
+        succeed();
+        assertThat(circuitBreaker.state()).isEqualTo(CircuitStateEnum.CLOSED);
+    }
+
+    @Test
+    public void halfOpen_reopensAfterFailedTrial() {
+        fail();
+        fail();
+        circuitBreaker.openDuration = Duration.ZERO;
+
+        fail();
+        circuitBreaker.openDuration = Duration.ofHours(1);
+        assertThat(circuitBreaker.state()).isEqualTo(CircuitStateEnum.OPEN);
+        assertThat(calls).hasValue(3);
+    }
+
+    @Test
+    public void halfOpen_cancelledTrialAdmitsNextTrial() {
+        fail();
+        fail();
+        circuitBreaker.openDuration = Duration.ZERO;
+
+        // The trial never completes, the subscriber gives up on it
+        circuitBreaker.call(() -> {
+            calls.incrementAndGet();
+            return Uni.createFrom().<String>nothing();
+        }).subscribe().with(item -> { }).cancel();
+        assertThat(circuitBreaker.state()).isEqualTo(CircuitStateEnum.HALF_OPEN);
+
+        assertThat(succeed()).isEqualTo("OK");
+        assertThat(circuitBreaker.state()).isEqualTo(CircuitStateEnum.CLOSED);
+        assertThat(calls).hasValue(4);
+    }
+}
@@ -0,0 +1,72 @@
+package com.github.blarc.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RedisKeySchemaTest {
+
+    @Test
+    public void unsharded_keepsLegacyKeyNames() {
+        var keys = new RedisKeySchema("priorities", 0);
+
+        assertThat(keys.shardCount()).isEqualTo(1);
+        assertThat(keys.countryKey("US")).isEqualTo("priorities:countries:US");
+        assertThat(keys.countriesSetKey(0)).isEqualTo("priorities:all_countries");
+        assertThat(keys.countryVersionsKey(0)).isEqualTo("priorities:country_versions");
+        assertThat(keys.contentHashesKey(0)).isEqualTo("priorities:content_hashes");
+        assertThat(keys.versionKey()).isEqualTo("priorities:version");
+        assertThat(keys.changesChannel()).isEqualTo("priorities:changes");
+        assertThat(keys.filterRulesKey()).isEqualTo("priorities:filter_rules");
+        assertThat(keys.filterRulesChangesChannel()).isEqualTo("priorities:filter_rules:changes");
+    }
+
+    @Test
+    public void sharded_keysOfShardShareHashTag() {
+        var keys = new RedisKeySchema("app1", 4);
+        int shard = keys.shard("US");
+        String hashTag = "{app1:" + shard + "}";
+
+        assertThat(keys.countryKey("US")).isEqualTo(hashTag + ":countries:US");
+        assertThat(keys.countriesSetKey(shard)).startsWith(hashTag);
+        assertThat(keys.countryVersionsKey(shard)).startsWith(hashTag);
+        assertThat(keys.contentHashesKey(shard)).startsWith(hashTag);
+        assertThat(keys.versionKey()).isEqualTo("app1:version");
+    }
+
+    @Test
+    public void sharded_datasetPointersShareHashTag() {
+        var keys = new RedisKeySchema("app1", 4);
+
+        assertThat(keys.activeDatasetKey()).isEqualTo("{app1:datasets}:active_dataset");
+        assertThat(keys.previousDatasetKey()).isEqualTo("{app1:datasets}:previous_dataset");
+        assertThat(new RedisKeySchema("app1", 0).activeDatasetKey()).isEqualTo("app1:active_dataset");
+    }
+
+    @Test
+    public void sharded_shardPointerSharesHashTagOfShard() {
+        var keys = new RedisKeySchema("app1", 4);
+        int shard = keys.shard("US");
+
+        assertThat(keys.shardActiveDatasetKey(shard)).startsWith("{app1:" + shard + "}");
+        assertThat(new RedisKeySchema("app1", 0).shardActiveDatasetKey(0)).isEqualTo("app1:active_dataset");
+    }
+
+    @Test
+    public void groupByShard_everyCountryInItsShard() {
+        var keys = new RedisKeySchema("priorities", 4);
+        var countryCodes = List.of("US", "SI", "DE", "GB", "JP", "BR", "IN");
+
+        var groups = keys.groupByShard(countryCodes);
+
+        assertThat(groups).hasSize(4);
+        assertThat(groups).flatMap(group -> group).containsExactlyInAnyOrderElementsOf(countryCodes);
+        for (int shard = 0; shard < groups.size(); shard++) {
+            for (String countryCode : groups.get(shard)) {
+                assertThat(keys.shard(countryCode)).isEqualTo(shard);
+            }
+        }
+    }
+}
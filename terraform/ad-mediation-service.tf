@@ -12,6 +12,21 @@ resource "google_artifact_registry_repository_iam_member" "ad_mediation_artifact
   member     = "serviceAccount:${google_service_account.ad_mediation_sa.email}"
 }
 
+# Priorities snapshot shared by all instances, a starting instance serves it until Redis answers
+resource "google_storage_bucket" "ad_mediation_snapshot" {
+  name     = "${var.projectId}-ad-mediation-snapshot"
+  location = var.region
+
+  uniform_bucket_level_access = true
+}
+
+# Grant the service account access to read and write the snapshot
+resource "google_storage_bucket_iam_member" "ad_mediation_snapshot_access" {
+  bucket = google_storage_bucket.ad_mediation_snapshot.name
+  role   = "roles/storage.objectUser"
+  member = "serviceAccount:${google_service_account.ad_mediation_sa.email}"
+}
+
 # Deploy Ad Mediation Service on Cloud Run
 resource "google_cloud_run_v2_service" "ad_mediation" {
   name     = "ad-mediation-service"
@@ -21,11 +36,24 @@ resource "google_cloud_run_v2_service" "ad_mediation" {
 
   template {
     service_account = google_service_account.ad_mediation_sa.email
+    # Cloud Storage volumes require the second generation execution environment
+    execution_environment = "EXECUTION_ENVIRONMENT_GEN2"
+
+    volumes {
+      name = "snapshot"
+      gcs {
+        bucket    = google_storage_bucket.ad_mediation_snapshot.name
+        read_only = false
+      }
+    }
 
     containers {
       image = "europe-docker.pkg.dev/ad-mediation-service-476306/github-container-registry/blarc/ad-mediation-service:ce8d471ae86b4b10247b4137a39e628e9712e279"
 
+      # gRPC shares the HTTP port, Cloud Run only forwards HTTP/2 to ports named h2c.
+      # All requests then reach the container as cleartext HTTP/2, which the HTTP server accepts as well.
       ports {
+        name           = "h2c"
         container_port = 8080
       }
 
@@ -50,6 +78,16 @@ resource "google_cloud_run_v2_service" "ad_mediation" {
         value = "true"
       }
 
+      env {
+        name  = "PRIORITIES_SNAPSHOT_FILE"
+        value = "/mnt/snapshot/priorities.snapshot"
+      }
+
+      volume_mounts {
+        name       = "snapshot"
+        mount_path = "/mnt/snapshot"
+      }
+
       resources {
         limits = {
           cpu    = "500m"